@@ -0,0 +1,75 @@
+package com.sz.core.autoconfigure;
+
+import com.sz.core.properties.WorkerProperty;
+import com.sz.core.utils.SnowflakeIdWorker;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.boot.bind.PropertiesConfigurationFactory;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.Environment;
+import org.springframework.validation.BindException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The class Named id worker registrar.
+ * 将配置的每个命名id生成器注册为同名bean，bean实例由{@link com.sz.core.utils.SnowflakeIdWorkerRegistry}提供
+ *
+ * @since JDK 1.8
+ */
+public class NamedIdWorkerRegistrar implements BeanDefinitionRegistryPostProcessor, EnvironmentAware {
+
+    private Environment environment;
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry) throws BeansException {
+        for (String name : bindNames()) {
+            String beanName = name.trim();
+            if (beanName.isEmpty() || registry.containsBeanDefinition(beanName)) {
+                continue;
+            }
+            RootBeanDefinition definition = new RootBeanDefinition(SnowflakeIdWorker.class);
+            definition.setFactoryBeanName(SZConfig.ID_WORKER_REGISTRY_BEAN_NAME);
+            definition.setFactoryMethodName("get");
+            definition.getConstructorArgumentValues().addIndexedArgumentValue(0, beanName);
+            registry.registerBeanDefinition(beanName, definition);
+        }
+    }
+
+    /**
+     * 与{@link WorkerProperty}相同的方式绑定names，逗号分隔、yaml列表与names[0]等写法都可以识别
+     *
+     * @return the names
+     */
+    private List<String> bindNames() {
+        if (!(environment instanceof ConfigurableEnvironment)) {
+            String[] names = environment.getProperty(WorkerProperty.PREFIX + ".names", String[].class);
+            return names == null ? Collections.emptyList() : Arrays.asList(names);
+        }
+        WorkerProperty workerProperty = new WorkerProperty();
+        PropertiesConfigurationFactory<WorkerProperty> factory = new PropertiesConfigurationFactory<>(workerProperty);
+        factory.setPropertySources(((ConfigurableEnvironment) environment).getPropertySources());
+        factory.setTargetName(WorkerProperty.PREFIX);
+        try {
+            factory.bindPropertiesToTarget();
+        } catch (BindException e) {
+            throw new IllegalStateException("bind " + WorkerProperty.PREFIX + " fail", e);
+        }
+        return workerProperty.getNames();
+    }
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+    }
+}
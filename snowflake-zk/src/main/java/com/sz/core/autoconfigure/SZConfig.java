@@ -1,23 +1,70 @@
 package com.sz.core.autoconfigure;
 
+import com.sz.core.properties.WorkerProperty;
 import com.sz.core.properties.ZkProperty;
+import com.sz.core.utils.BitLayout;
+import com.sz.core.utils.BorrowFutureWaitStrategy;
+import com.sz.core.utils.BusySpinWaitStrategy;
+import com.sz.core.utils.CachedSnowflakeIdWorker;
+import com.sz.core.utils.HighWaterJournal;
+import com.sz.core.utils.ParkWaitStrategy;
+import com.sz.core.utils.SequenceStrategy;
 import com.sz.core.utils.SnowflakeIdWorker;
+import com.sz.core.utils.SnowflakeIdWorkerRegistry;
+import com.sz.core.utils.SpareWorkerIdProvider;
+import com.sz.core.utils.StripedSnowflakeIdWorker;
+import com.sz.core.utils.SystemTimeSource;
+import com.sz.core.utils.TickerTimeSource;
+import com.sz.core.utils.TimeSource;
+import com.sz.core.utils.WaitStrategy;
+import com.sz.core.utils.WorkerIdentity;
+import com.sz.core.utils.YieldWaitStrategy;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.transaction.CuratorOp;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.framework.state.ConnectionStateListener;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The class SZ config.
@@ -27,17 +74,105 @@ import java.util.List;
  * @version 2018 -01-04 15:42:34
  * @since JDK 1.8
  */
-@EnableConfigurationProperties(ZkProperty.class)
+@EnableConfigurationProperties({ZkProperty.class, WorkerProperty.class})
 @Configuration
 public class SZConfig {
 
+    /**
+     * 命名id生成器注册中心的bean名称
+     */
+    public static final String ID_WORKER_REGISTRY_BEAN_NAME = "snowflakeIdWorkerRegistry";
+
+    /**
+     * 一轮分配中所有候选都被其他进程抢先
+     */
+    private static final long CONFLICT = -2L;
+
+    /**
+     * 按HASHED顺序探测时使用的种子，由进程号与主机名得到
+     */
+    private static final long INSTANCE_SEED = ManagementFactory.getRuntimeMXBean().getName().hashCode();
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final ZkProperty zkProperty;
 
+    private final WorkerProperty workerProperty;
+
+    private TimeSource timeSource;
+
+    private WaitStrategy waitStrategy;
+
+    private BitLayout layout = BitLayout.DEFAULT;
+
+    private WorkerIdCache workerIdCache;
+
+    private WorkerIdLease workerIdLease;
+
+    /**
+     * 由zk分配身份的所有id生成器，会话丢失后需要重新分配
+     */
+    private final List<SnowflakeIdWorker> managedWorkers = new CopyOnWriteArrayList<>();
+
+    /**
+     * 本进程预先占用的备用baseId，null表示没有
+     */
+    private final AtomicReference<HotSpare> hotSpare = new AtomicReference<>();
+
+    /**
+     * 定时将高水位写入/work/all/{baseId}的线程，未开启时为null
+     */
+    private ScheduledExecutorService heartbeatExecutor;
+
+    /**
+     * 已打开的高水位日志
+     */
+    private final List<HighWaterJournal> journals = new CopyOnWriteArrayList<>();
+
+    /**
+     * 由PersistentNode维持临时节点的id生成器，重连后沿用原baseId
+     */
+    private final Map<SnowflakeIdWorker, WorkerIdNode> workerNodes = new ConcurrentHashMap<>();
+
+    /**
+     * 最近一次会话丢失后的重新分配，全部id生成器的新身份生效后完成
+     */
+    private volatile CompletableFuture<Void> reallocation = CompletableFuture.completedFuture(null);
+
+    /**
+     * 异步启动或者沿用租约后尚未成功分配身份的id生成器，由分配任务及其重试负责，重连后的重新分配跳过它们
+     */
+    private final Set<SnowflakeIdWorker> allocating = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 包装默认id生成器的环形缓存，未开启时为null；会话丢失后丢弃其中的id
+     */
+    private volatile CachedSnowflakeIdWorker cachedIdWorker;
+
+    /**
+     * 分配失败后等待重试的id生成器，重新连接时立即重试
+     */
+    private final Map<SnowflakeIdWorker, ScheduledFuture<?>> allocationRetries = new ConcurrentHashMap<>();
+
+    private final AtomicLong reclaimCount = new AtomicLong();
+
+    private final AtomicLong allocateConflictCount = new AtomicLong();
+
+    private volatile long lastReclaimMillis = -1L;
+
+    /**
+     * 后台申请备用baseId、异步分配及其重试以及重连后重新分配baseId的线程，避免阻塞curator的事件线程
+     */
+    private final ScheduledExecutorService allocateExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "snowflake-allocate");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     @Autowired
-    public SZConfig(ZkProperty zkProperty) {
+    public SZConfig(ZkProperty zkProperty, WorkerProperty workerProperty) {
         this.zkProperty = zkProperty;
+        this.workerProperty = workerProperty;
     }
 
     /**
@@ -60,39 +195,505 @@ public class SZConfig {
                 .build();
     }
 
+    /**
+     * Create time source.
+     * 构建id生成器使用的时钟
+     *
+     * @return the time source
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public TimeSource createTimeSource() {
+        if (workerProperty.getTimeSource() == WorkerProperty.TimeSourceType.SYSTEM) {
+            return SystemTimeSource.INSTANCE;
+        }
+        return new TickerTimeSource(TimeUnit.MICROSECONDS.toNanos(workerProperty.getTickerResolutionMicros()));
+    }
+
+    /**
+     * Create bit layout.
+     * 构建id的位布局，id生成器与zk分配baseId共用
+     *
+     * @return the bit layout
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public BitLayout createBitLayout() {
+        return new BitLayout(workerProperty.getEpoch(), workerProperty.getTickMillis(), workerProperty.getTimestampBits(),
+                workerProperty.getDataCenterIdBits(), workerProperty.getWorkerIdBits(), workerProperty.getSequenceBits(),
+                workerProperty.getShardBits());
+    }
+
+    /**
+     * Create wait strategy.
+     * 构建id生成器等待时钟前进时的策略
+     *
+     * @return the wait strategy
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public WaitStrategy createWaitStrategy() {
+        switch (workerProperty.getWaitStrategy()) {
+            case YIELD:
+                return YieldWaitStrategy.INSTANCE;
+            case PARK:
+                return new ParkWaitStrategy(workerProperty.getWaitParkNanos());
+            case BORROW:
+                return new BorrowFutureWaitStrategy(workerProperty.getWaitBorrowMillis(),
+                        new ParkWaitStrategy(workerProperty.getWaitParkNanos()));
+            case SPIN:
+            default:
+                return BusySpinWaitStrategy.INSTANCE;
+        }
+    }
+
+    /**
+     * Create worker id cache.
+     * 构建监听baseId分配情况的本地缓存，会话丢失后重新分配时优先从中挑选空闲的baseId
+     *
+     * @param curatorFramework the curator framework
+     * @return the worker id cache
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = ZkProperty.PREFIX, name = "cache-enabled", havingValue = "true")
+    public WorkerIdCache createWorkerIdCache(CuratorFramework curatorFramework) {
+        return new WorkerIdCache(curatorFramework, workFolder());
+    }
+
+    /**
+     * Create worker id lease.
+     * 构建默认id生成器的本地租约，进程异常退出后在租约期内重启可以跳过分配时的探测，与zk确认后沿用原baseId
+     *
+     * @param curatorFramework the curator framework
+     * @param layout           the bit layout
+     * @return the worker id lease
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = ZkProperty.PREFIX, name = "lease-file")
+    public WorkerIdLease createWorkerIdLease(CuratorFramework curatorFramework, BitLayout layout) {
+        String scope = zkProperty.getZkService() + "/" + zkProperty.getNameSpace() + workFolder() + " " + layout;
+        return new WorkerIdLease(curatorFramework, zkProperty.getLeaseFile(), scope, zkProperty.getSessionTimeoutMs());
+    }
+
     /**
      * Create id worker.
      * 构建id生成器
      *
      * @param curatorFramework the curator framework
+     * @param timeSource       the time source
+     * @param waitStrategy     the wait strategy
+     * @param layout           the bit layout
+     * @param workerIdCache    the worker id cache, may be absent
+     * @param workerIdLease    the worker id lease, may be absent
      * @return the snowflake id worker
      * @throws Exception the exception
      */
     @Bean
+    @Primary
     @ConditionalOnMissingBean
-    public SnowflakeIdWorker createIdWorker(CuratorFramework curatorFramework) throws Exception {
+    public SnowflakeIdWorker createIdWorker(CuratorFramework curatorFramework, TimeSource timeSource,
+                                            WaitStrategy waitStrategy, BitLayout layout,
+                                            ObjectProvider<WorkerIdCache> workerIdCache,
+                                            ObjectProvider<WorkerIdLease> workerIdLease) throws Exception {
+
+        this.timeSource = timeSource;
+        this.waitStrategy = waitStrategy;
+        this.layout = layout;
+        this.workerIdCache = workerIdCache.getIfAvailable();
+        this.workerIdLease = workerIdLease.getIfAvailable();
+
+        Long dataCenterId = workerProperty.getDataCenterId();
+        if (dataCenterId != null && (dataCenterId > layout.getMaxDataCenterId() || dataCenterId < 0)) {
+            throw new IllegalArgumentException(String.format("data center Id can't be greater than %d or less than 0, but is %d",
+                    layout.getMaxDataCenterId(), dataCenterId));
+        }
+
+        startHeartbeat(curatorFramework);
+
+        WorkerIdLease.Lease lease = this.workerIdLease == null ? null : this.workerIdLease.resume();
+        if (lease != null && lease.getLastTimestampMillis() - timeSource.currentTimeMillis() > floorMaxWaitMillis()) {
+            log.warn("clock is {} ms behind last timestamp of lease, lease ignored",
+                    lease.getLastTimestampMillis() - timeSource.currentTimeMillis());
+            lease = null;
+        }
+        if (lease != null) {
+            registerRefreshListener(curatorFramework);
+            // 租约的到期时间依赖本机时钟，时钟回退后过期的租约同样可能看似有效，因此只用来跳过分配时的探测：
+            // 以未分配身份的状态构建，在后台确认原baseId的临时节点仍属于旧会话并在当前会话下重新占用后才启用身份
+            SnowflakeIdWorker.init(newBuilder(curatorFramework, null).pendingIdentity(zkProperty.getStartTimeoutMs()));
+            SnowflakeIdWorker snowflakeIdWorker = SnowflakeIdWorker.getInstance();
+            managedWorkers.add(snowflakeIdWorker);
+            confirmLeaseAsync(curatorFramework, snowflakeIdWorker, lease);
+            log.warn("resume snowflakeId from lease, baseId is {}, confirm it in background", lease.getBaseId());
+            return snowflakeIdWorker;
+        }
+
+        if (zkProperty.isAsyncStartEnabled()) {
+            registerRefreshListener(curatorFramework);
+            // 先以未分配身份的状态构建，在后台线程中申请baseId，与容器中其他bean的初始化并行
+            SnowflakeIdWorker.init(newBuilder(curatorFramework, null).pendingIdentity(zkProperty.getStartTimeoutMs()));
+            SnowflakeIdWorker snowflakeIdWorker = SnowflakeIdWorker.getInstance();
+            managedWorkers.add(snowflakeIdWorker);
+            allocateAsync(curatorFramework, snowflakeIdWorker);
+            return snowflakeIdWorker;
+        }
 
         long baseId = createBaseId(curatorFramework);
         if (baseId == -1) {
             throw new RuntimeException("create snowFlakeId fail, because baseId is illegal");
         }
         registerRefreshListener(curatorFramework);
-        return createSnowflakeIdWorker(baseId, false);
+        long floorMillis = readHighWater(curatorFramework, baseId);
+        long markMillis = writeMark(curatorFramework, baseId, floorMillis);
+        // 默认的id生成器同时作为全局单例，兼容SnowflakeIdWorker.getInstance()
+        SnowflakeIdWorker.init(newBuilder(curatorFramework, null, toIdentity(baseId))
+                .floorMillis(floorMillis)
+                .markMillis(markMillis));
+        SnowflakeIdWorker snowflakeIdWorker = SnowflakeIdWorker.getInstance();
+        managedWorkers.add(snowflakeIdWorker);
+        trackNode(curatorFramework, snowflakeIdWorker, baseId);
+        claimHotSpareAsync(curatorFramework);
+        return snowflakeIdWorker;
     }
 
+    /**
+     * 停止后台线程并删除维持的临时节点，备用baseId的临时节点随zk会话关闭一同删除
+     */
+    @PreDestroy
+    public void shutdown() {
+        allocateExecutor.shutdownNow();
+        hotSpare.set(null);
+        workerNodes.values().forEach(WorkerIdNode::close);
+        workerNodes.clear();
+        journals.forEach(HighWaterJournal::close);
+        if (heartbeatExecutor != null) {
+            heartbeatExecutor.shutdownNow();
+        }
+    }
 
-    private SnowflakeIdWorker createSnowflakeIdWorker(long baseId, boolean restart) {
-        // TODO: 2018/1/5 应将dataCenterId割离以对应多个节点
-        // 将baseId拆成centerId和workId以供id生成器使用
-        long workId = baseId & SnowflakeIdWorker.MAX_WORKER_ID;
-        baseId = baseId >> SnowflakeIdWorker.WORKER_ID_BITS;
-        long dataCenterId = baseId & SnowflakeIdWorker.MAX_DATA_CENTER_ID;
-        if (!restart) {
-            SnowflakeIdWorker.init(workId, dataCenterId);
-        } else {
-            SnowflakeIdWorker.reInit(workId, dataCenterId);
+    /**
+     * 最近一次会话丢失后的重新分配，全部id生成器的新身份生效后正常完成，重试用尽后异常完成；
+     * 会话没有丢失过时为已完成的future
+     *
+     * @return the reallocation future
+     */
+    public CompletableFuture<Void> getReallocation() {
+        return reallocation;
+    }
+
+    /**
+     * 会话丢失重连后成功沿用原baseId的次数，所有id生成器合计
+     *
+     * @return the reclaim count
+     */
+    public long getReclaimCount() {
+        return reclaimCount.get();
+    }
+
+    /**
+     * 分配baseId时被其他进程抢先的次数，包括抢占节点失败与位图版本冲突，所有id生成器合计
+     *
+     * @return the allocate conflict count
+     */
+    public long getAllocateConflictCount() {
+        return allocateConflictCount.get();
+    }
+
+    /**
+     * 最近一次从开始重新占用到确认沿用原baseId的耗时，单位为ms，尚未发生过时为-1
+     *
+     * @return the last reclaim millis
+     */
+    public long getLastReclaimMillis() {
+        return lastReclaimMillis;
+    }
+
+    /**
+     * Create id worker registry.
+     * 为配置的每个名称构建独立的id生成器，各自从zk申请身份
+     *
+     * @param curatorFramework  the curator framework
+     * @param snowflakeIdWorker the default snowflake id worker
+     * @return the snowflake id worker registry
+     * @throws Exception the exception
+     */
+    @Bean(name = ID_WORKER_REGISTRY_BEAN_NAME)
+    @ConditionalOnMissingBean
+    public SnowflakeIdWorkerRegistry createIdWorkerRegistry(CuratorFramework curatorFramework,
+                                                            SnowflakeIdWorker snowflakeIdWorker) throws Exception {
+        Map<String, SnowflakeIdWorker> workers = new LinkedHashMap<>();
+        for (String name : workerProperty.getNames()) {
+            if (zkProperty.isAsyncStartEnabled()) {
+                SnowflakeIdWorker worker = newBuilder(curatorFramework, name.trim()).pendingIdentity(zkProperty.getStartTimeoutMs()).build();
+                managedWorkers.add(worker);
+                allocateAsync(curatorFramework, worker);
+                workers.put(name.trim(), worker);
+                continue;
+            }
+            long baseId = createBaseId(curatorFramework);
+            if (baseId == -1) {
+                throw new RuntimeException(String.format("create snowFlakeId %s fail, because baseId is illegal", name));
+            }
+            long floorMillis = readHighWater(curatorFramework, baseId);
+            long markMillis = writeMark(curatorFramework, baseId, floorMillis);
+            SnowflakeIdWorker worker = newBuilder(curatorFramework, name.trim(), toIdentity(baseId))
+                    .floorMillis(floorMillis)
+                    .markMillis(markMillis)
+                    .build();
+            managedWorkers.add(worker);
+            trackNode(curatorFramework, worker, baseId);
+            workers.put(name.trim(), worker);
+        }
+        return new SnowflakeIdWorkerRegistry(snowflakeIdWorker, workers);
+    }
+
+    /**
+     * Create named id worker registrar.
+     * 将命名id生成器注册为同名bean
+     *
+     * @return the named id worker registrar
+     */
+    @Bean
+    public static NamedIdWorkerRegistrar createNamedIdWorkerRegistrar() {
+        return new NamedIdWorkerRegistrar();
+    }
+
+    /**
+     * Create cached id worker.
+     * 构建带环形缓存的id生成器
+     *
+     * @param snowflakeIdWorker the snowflake id worker
+     * @return the cached snowflake id worker
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = WorkerProperty.PREFIX, name = "cache-enabled", havingValue = "true")
+    public CachedSnowflakeIdWorker createCachedIdWorker(SnowflakeIdWorker snowflakeIdWorker) {
+        cachedIdWorker = new CachedSnowflakeIdWorker(snowflakeIdWorker, workerProperty.getCacheBufferSize(),
+                workerProperty.getCachePaddingFactor(), workerProperty.getCacheScheduleIntervalMs());
+        return cachedIdWorker;
+    }
+
+    /**
+     * Create striped id worker.
+     * 构建按线程分段租用序列的id生成器
+     *
+     * @param snowflakeIdWorker the snowflake id worker
+     * @return the striped snowflake id worker
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = WorkerProperty.PREFIX, name = "stripe-enabled", havingValue = "true")
+    public StripedSnowflakeIdWorker createStripedIdWorker(SnowflakeIdWorker snowflakeIdWorker) {
+        return new StripedSnowflakeIdWorker(snowflakeIdWorker, workerProperty.getStripeLeaseSize());
+    }
+
+    private SnowflakeIdWorker.Builder newBuilder(CuratorFramework curatorFramework, String name, WorkerIdentity identity)
+            throws IOException {
+        return newBuilder(curatorFramework, name)
+                .workerId(identity.getWorkerId())
+                .dataCenterId(identity.getDataCenterId());
+    }
+
+    private SnowflakeIdWorker.Builder newBuilder(CuratorFramework curatorFramework, String name) throws IOException {
+        SnowflakeIdWorker.Builder builder = SnowflakeIdWorker.builder()
+                .highWaterJournal(openJournal(name))
+                .identityTimeoutMillis(zkProperty.getStartTimeoutMs())
+                .lockFree(workerProperty.isLockFree())
+                .timeSource(timeSource)
+                .waitStrategy(waitStrategy)
+                .layout(layout)
+                .sequenceStrategy(toSequenceStrategy(workerProperty.getSequenceStrategy()))
+                .maxLeadMillis(workerProperty.getMaxLeadMillis())
+                .rollbackToleranceMillis(workerProperty.getRollbackToleranceMillis())
+                .rollbackMaxWaitMillis(workerProperty.getRollbackMaxWaitMillis())
+                .floorMaxWaitMillis(floorMaxWaitMillis());
+        if (workerProperty.isRollbackSpareEnabled()) {
+            builder.spareWorkerIdProvider(new RollbackSpareProvider(curatorFramework));
+        }
+        return builder;
+    }
+
+    /**
+     * 时钟大幅回退时换用预先占用的备用baseId
+     * <p>
+     * 在生成ID的线程持有id生成器的锁时调用，因此只取出当前会话下已经占用好的备用baseId，不访问zk；
+     * 没有可用的备用baseId时返回null，由id生成器抛出异常。
+     * 换用后在后台线程中维持新baseId的节点与租约，把原baseId生成过的最大时间截写入/work/all/{baseId}后释放原baseId，
+     * 之后占用原baseId的进程只使用其后的时间截；写入失败时继续占用原baseId直到会话结束。
+     */
+    private final class RollbackSpareProvider implements SpareWorkerIdProvider {
+
+        private final CuratorFramework curatorFramework;
+        /**
+         * 最近一次取出的备用baseId，只在持有id生成器的锁时访问
+         */
+        private HotSpare taken;
+
+        private RollbackSpareProvider(CuratorFramework curatorFramework) {
+            this.curatorFramework = curatorFramework;
+        }
+
+        @Override
+        public WorkerIdentity acquire() {
+            HotSpare spare = hotSpare.get();
+            if (spare == null || spare.sessionId != currentSessionId(curatorFramework) || !hotSpare.compareAndSet(spare, null)) {
+                // 没有备用baseId，或者占用它的会话已经丢失
+                return null;
+            }
+            claimHotSpareAsync(curatorFramework);
+            taken = spare;
+            return toIdentity(spare.baseId);
+        }
+
+        @Override
+        public long floorMillis(WorkerIdentity identity) {
+            HotSpare spare = taken;
+            return spare != null && spare.baseId == toBaseId(identity) ? spare.floorMillis : 0L;
+        }
+
+        @Override
+        public long markMillis(WorkerIdentity identity) {
+            HotSpare spare = taken;
+            return spare != null && spare.baseId == toBaseId(identity) ? spare.markMillis : 0L;
+        }
+
+        @Override
+        public void retire(SnowflakeIdWorker worker, WorkerIdentity retired, WorkerIdentity spare, long lastMillis) {
+            long retiredBaseId = toBaseId(retired);
+            long spareBaseId = toBaseId(spare);
+            try {
+                allocateExecutor.execute(() -> retireBaseId(curatorFramework, worker, retiredBaseId, spareBaseId, lastMillis));
+            } catch (RejectedExecutionException e) {
+                log.debug("allocate executor has been shut down");
+            }
+        }
+    }
+
+    /**
+     * 时钟回退换用备用baseId后，改为维持备用baseId，记下原baseId的最大时间截后释放原baseId
+     *
+     * @param curatorFramework the curator framework
+     * @param worker           the worker
+     * @param retiredBaseId    原baseId
+     * @param spareBaseId      换用的备用baseId
+     * @param lastMillis       原baseId生成过的最大时间截(毫秒)
+     */
+    private void retireBaseId(CuratorFramework curatorFramework, SnowflakeIdWorker worker, long retiredBaseId, long spareBaseId,
+                              long lastMillis) {
+        WorkerIdentity identity = worker.getIdentity();
+        if (identity != null && toBaseId(identity) == spareBaseId && !allocating.contains(worker)) {
+            // 节点与租约改为维持备用baseId，原baseId的节点停止维持但不删除，释放之前仍由当前会话占用
+            trackNode(curatorFramework, worker, spareBaseId);
+        }
+        try {
+            curatorFramework.setData().forPath(workFolder() + "/all/" + retiredBaseId,
+                    Long.toString(lastMillis).getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            log.warn("write last timestamp of retired baseId {} fail, keep it until session ends, because {}",
+                    retiredBaseId, e.getMessage());
+            return;
+        }
+        // 维持原baseId的节点已在换用备用baseId时停止；换用前身份已被撤销时在这里停止，重连后不再沿用原baseId
+        WorkerIdNode node = workerNodes.get(worker);
+        if (node != null && node.getBaseId() == retiredBaseId && workerNodes.remove(worker, node)) {
+            node.abandon();
+        }
+        releaseBaseId(curatorFramework, retiredBaseId);
+        log.warn("release baseId {} retired after clock moved backwards", retiredBaseId);
+    }
+
+    /**
+     * 打开id生成器的高水位日志，命名id生成器使用以名称为后缀的文件
+     *
+     * @param name id生成器的名称，默认id生成器为null
+     * @return the high water journal，未配置时为null
+     * @throws IOException the io exception
+     */
+    private HighWaterJournal openJournal(String name) throws IOException {
+        String file = workerProperty.getJournalFile();
+        if (file == null || file.isEmpty()) {
+            return null;
+        }
+        HighWaterJournal journal = new HighWaterJournal(name == null ? file : file + "." + name, workerProperty.getJournalWindowMillis());
+        journals.add(journal);
+        return journal;
+    }
+
+    private static SequenceStrategy toSequenceStrategy(WorkerProperty.SequenceStrategyType type) {
+        switch (type) {
+            case CARRY:
+                return SequenceStrategy.CARRY;
+            case RANDOM:
+                return SequenceStrategy.RANDOM;
+            case RESET:
+            default:
+                return SequenceStrategy.RESET;
+        }
+    }
+
+    /**
+     * 身份之前的持有者留下的高水位领先于时钟时最多额外等待的时间：
+     * 心跳写入的高水位最多领先其写入时刻一个心跳间隔加上会话超时时间，租约中的最后时间截最多领先三分之一的会话超时时间
+     *
+     * @return the floor max wait millis
+     */
+    private long floorMaxWaitMillis() {
+        return 2L * zkProperty.getHeartbeatIntervalMs() + zkProperty.getSessionTimeoutMs();
+    }
+
+    /**
+     * 由身份得到baseId，与{@link #toIdentity(long)}互逆
+     *
+     * @param identity the identity
+     * @return the base id
+     */
+    private long toBaseId(WorkerIdentity identity) {
+        if (workerProperty.getDataCenterId() != null) {
+            return identity.getWorkerId();
+        }
+        return (identity.getDataCenterId() << layout.getWorkerIdBits()) | identity.getWorkerId();
+    }
+
+    /**
+     * 由baseId得到身份
+     * <p>
+     * 按机房分配的进程得到的(数据中心ID, 工作机器ID)与全局分配的baseId=(数据中心ID << 工作机器ID位数) | 工作机器ID相同，
+     * 两种方式在同一zk集群上并存时(例如逐步切换到按机房分配的过程中)由{@link #reserveGlobal}互斥；
+     * 各机房使用各自的zk集群时无法互斥，两种方式不能同时运行。
+     *
+     * @param baseId the base id
+     * @return the worker identity
+     */
+    private WorkerIdentity toIdentity(long baseId) {
+        Long dataCenterId = workerProperty.getDataCenterId();
+        if (dataCenterId != null) {
+            // 按机房分配时baseId即为工作机器ID，数据中心ID来自配置
+            return new WorkerIdentity(baseId, dataCenterId);
         }
-        return SnowflakeIdWorker.getInstance();
+        // 将baseId拆成centerId和workId以供id生成器使用
+        return layout.toIdentity(baseId);
+    }
+
+    /**
+     * 分配baseId使用的zk目录，按机房分配时为/work/{dataCenterId}
+     *
+     * @return the work folder
+     */
+    private String workFolder() {
+        Long dataCenterId = workerProperty.getDataCenterId();
+        return dataCenterId == null ? "/work" : "/work/" + dataCenterId;
+    }
+
+    /**
+     * baseId的上限(不含)，按机房分配时只分配工作机器ID
+     *
+     * @return the max base id
+     */
+    private long maxBaseId() {
+        return workerProperty.getDataCenterId() == null ? layout.getMaxBaseId() : layout.getMaxWorkerId() + 1;
     }
 
     private void registerRefreshListener(CuratorFramework curatorFramework) {
@@ -103,18 +704,28 @@ public class SZConfig {
             @Override
             public void stateChanged(CuratorFramework client, ConnectionState newState) {
                 switch (newState) {
+                    case CONNECTED:
+                        retryAllocations(client);
+                        break;
                     case RECONNECTED:
+                        retryAllocations(client);
                         if (nowState == 0) {
-                            try {
-                                createSnowflakeIdWorker(createBaseId(client), true);
-                            } catch (Exception e) {
-                                log.error("recreate snowflakeId fail,because ", e);
-                            }
+                            // 会话丢失期间原baseId可能已被其他进程占用，在后台线程中为每个id生成器重新分配
+                            reallocateAsync(client, reallocation);
                         }
                         nowState = 1;
+                        claimHotSpareAsync(client);
+                        break;
+                    case SUSPENDED:
+                        // 连接断开但会话可能仍然有效，临时节点还在，继续使用当前身份，等待重连或者会话丢失
+                        log.warn("zk connection suspended, keep using current identity until session is lost");
                         break;
                     case LOST:
                         nowState = 0;
+                        if (reallocation.isDone()) {
+                            reallocation = new CompletableFuture<>();
+                        }
+                        revokeIdentities();
                         break;
                     default: {
                     }
@@ -124,89 +735,1045 @@ public class SZConfig {
     }
 
     /**
-     * Create base id.
-     * 通过zk来分配base id
+     * 会话丢失后临时节点随之删除，baseId随时可能被其他进程占用，撤销全部id生成器的身份并丢弃缓存中的id
+     * <p>
+     * 高水位只覆盖到会话丢失为止可能生成的ID，此后继续以原身份生成ID就可能与新的持有者重复。
+     * 撤销后生成ID的线程等待重连后重新分配的身份；按线程租用的序列在身份被撤销后同样作废。
+     */
+    private void revokeIdentities() {
+        for (SnowflakeIdWorker worker : managedWorkers) {
+            worker.revokeIdentity();
+        }
+        CachedSnowflakeIdWorker cachedIdWorker = this.cachedIdWorker;
+        if (cachedIdWorker != null) {
+            cachedIdWorker.discard();
+        }
+        log.warn("zk session lost, revoke the identity of {} snowflake id workers", managedWorkers.size());
+    }
+
+    /**
+     * 在后台线程中为全部id生成器重新分配baseId，完成后结束future
+     * <p>
+     * 单个id生成器重试用尽后按{@link ZkProperty#getReallocateMaxBackoffMs()}延迟后重新分配，其余的id生成器不受影响
      *
      * @param curatorFramework the curator framework
-     * @return the long
-     * @throws Exception the exception
+     * @param future           the future
      */
-    private long createBaseId(CuratorFramework curatorFramework) throws Exception {
-
-        String allWorkFolder = "/work/all";
-        String nowWorkFolder = "/work/now";
-        // 获取baseId的最大值
-        long maxId = 1 << (SnowflakeIdWorker.DATA_CENTER_ID_BITS + SnowflakeIdWorker.WORKER_ID_BITS);
-        // 检测是否有所需的节点，无则建立
-        curatorFramework.checkExists().creatingParentContainersIfNeeded().forPath(allWorkFolder + "/0");
-        curatorFramework.checkExists().creatingParentContainersIfNeeded().forPath(nowWorkFolder + "/0");
-        // 获取已经使用过的baseId集合
-        List<String> allWork = curatorFramework.getChildren().forPath(allWorkFolder);
-        // 获取当前正在使用的baseId集合
-        List<String> nowWork = curatorFramework.getChildren().forPath(nowWorkFolder);
-        long baseId = -1L;
-        long nowMaxId = -1L;
-
-        if (allWork != null && allWork.size() > 0) {
-            // 将已经使用过的baseId从小到大排序
-            allWork.sort((o1, o2) -> {
-                if (o1.length() > o2.length()) {
-                    return 1;
-                } else if (o1.length() < o2.length()) {
-                    return -1;
-                }
-                return o1.compareTo(o2);
-            });
-            // 获取当前已经使用的最大的baseId
-            nowMaxId = Long.parseLong(allWork.get(allWork.size() - 1));
-            // 从已使用过的baseId集合中剔除当前正在使用的baseId集合
-            if (nowWork != null && nowWork.size() > 0) {
-                allWork.removeIf(nowWork::contains);
-            }
-            // 如果当前还有baseId未被使用，则利用临时节点抢占选取的baseId
-            if (allWork.size() > 0) {
-                for (String id : allWork) {
-                    String path = nowWorkFolder + "/" + id;
+    private void reallocateAsync(CuratorFramework curatorFramework, CompletableFuture<Void> future) {
+        try {
+            allocateExecutor.execute(() -> {
+                long start = System.currentTimeMillis();
+                Exception failure = null;
+                for (SnowflakeIdWorker worker : managedWorkers) {
                     try {
-                        curatorFramework.create().withMode(CreateMode.EPHEMERAL)
-                                .forPath(path);
-                        baseId = Long.parseLong(id);
-                        break;
+                        reallocate(curatorFramework, worker);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        future.completeExceptionally(e);
+                        return;
                     } catch (Exception e) {
-                        log.error("zk lock path fail, path is {}, because {}", path, e);
+                        log.error("recreate snowflakeId fail, retry in {} ms, because ", zkProperty.getReallocateMaxBackoffMs(), e);
+                        // 身份已被撤销，交由分配任务继续重试
+                        allocating.add(worker);
+                        worker.failIdentity(e);
+                        scheduleAllocation(curatorFramework, worker);
+                        if (failure == null) {
+                            failure = e;
+                        }
                     }
                 }
-            }
-        }
-        // 如果没有未使用的baseId或者抢占失败，则尝试申请新的baseId
-        if (baseId == -1) {
-            nowMaxId++;
-            // 当当前的最大baseId小于id生成器所支持的最大baseId时则尝试申请
-            while (nowMaxId < maxId) {
-                baseId = nowMaxId;
-                String path = nowWorkFolder + "/" + baseId;
-                String allPath = allWorkFolder + "/" + baseId;
-                try {
-                    // 申请并抢占新的baseId
-                    curatorFramework.create().withMode(CreateMode.PERSISTENT)
-                            .forPath(allPath);
-                    curatorFramework.create().withMode(CreateMode.EPHEMERAL)
-                            .forPath(path);
-                    break;
-                } catch (Exception e) {
-                    log.error("zk create path fail, path is {}, because {}", path, e);
+                if (failure != null) {
+                    future.completeExceptionally(failure);
+                    return;
                 }
-                nowMaxId++;
-            }
-        }
-
-        if (baseId >= maxId || nowMaxId >= maxId) {
-            log.error("create snowflakeId fail, baseId is {}, nowMaxId is {}, maxId is {}", baseId, nowMaxId, maxId);
-            return -1;
-        } else {
-            log.warn("create snowflakeId success, baseId is {}, nowMaxId is {}, maxId is {}", baseId, nowMaxId, maxId);
-            return baseId;
+                log.info("reallocate snowflakeId success in {} ms", System.currentTimeMillis() - start);
+                future.complete(null);
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("allocate executor has been shut down");
+            future.completeExceptionally(e);
         }
     }
 
+    /**
+     * 为id生成器重新分配baseId并切换身份，失败后按指数退避重试
+     * <p>
+     * 由PersistentNode维持节点时先确认原baseId已在新会话下重建，沿用原baseId时重新启用会话丢失时撤销的原身份，
+     * 只使用高水位以及撤销前生成过的时间截之后的时间截；确认被其他进程占用后才重新分配。
+     *
+     * @param curatorFramework the curator framework
+     * @param worker           the worker
+     * @throws Exception 重试用尽
+     */
+    private void reallocate(CuratorFramework curatorFramework, SnowflakeIdWorker worker) throws Exception {
+        if (allocating.contains(worker)) {
+            // 异步启动尚未成功，由启动时的分配任务及其重试负责
+            return;
+        }
+        WorkerIdNode node = workerNodes.get(worker);
+        if (node != null) {
+            boolean reclaimed = false;
+            try {
+                long start = System.currentTimeMillis();
+                long previousSessionId = node.getOwnerSessionId();
+                reclaimed = node.reclaim(zkProperty.getSessionTimeoutMs());
+                if (reclaimed && reserveGlobal(curatorFramework, node.getBaseId(), previousSessionId)) {
+                    long floorMillis = readHighWater(curatorFramework, node.getBaseId());
+                    long markMillis = writeMark(curatorFramework, node.getBaseId(), floorMillis);
+                    worker.switchIdentity(toIdentity(node.getBaseId()), floorMillis, markMillis);
+                    lastReclaimMillis = System.currentTimeMillis() - start;
+                    reclaimCount.incrementAndGet();
+                    return;
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                log.warn("reclaim baseId {} fail, because {}", node.getBaseId(), e.getMessage());
+            }
+            workerNodes.remove(worker, node);
+            if (reclaimed) {
+                // 节点属于当前会话，关闭时删除
+                node.close();
+            } else {
+                node.abandon();
+            }
+        }
+        reassignWithRetry(curatorFramework, worker);
+    }
+
+    /**
+     * 异步启动时在后台线程中为id生成器申请baseId，失败时唤醒等待身份的线程
+     *
+     * @param curatorFramework the curator framework
+     * @param worker           the worker
+     */
+    private void allocateAsync(CuratorFramework curatorFramework, SnowflakeIdWorker worker) {
+        allocating.add(worker);
+        try {
+            allocateExecutor.execute(() -> allocate(curatorFramework, worker));
+        } catch (RejectedExecutionException e) {
+            allocating.remove(worker);
+            worker.failIdentity(e);
+        }
+    }
+
+    /**
+     * 为异步启动的id生成器分配baseId，重试用尽后唤醒等待身份的线程，并在{@link ZkProperty#getReallocateMaxBackoffMs()}后重新开始
+     *
+     * @param curatorFramework the curator framework
+     * @param worker           the worker
+     */
+    private void allocate(CuratorFramework curatorFramework, SnowflakeIdWorker worker) {
+        long start = System.currentTimeMillis();
+        try {
+            reassignWithRetry(curatorFramework, worker);
+            allocating.remove(worker);
+            log.info("create snowflakeId {} in {} ms", worker.getIdentity(), System.currentTimeMillis() - start);
+            claimHotSpareAsync(curatorFramework);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            allocating.remove(worker);
+            worker.failIdentity(e);
+        } catch (Exception e) {
+            log.error("create snowflakeId fail, retry in {} ms, because ", zkProperty.getReallocateMaxBackoffMs(), e);
+            worker.failIdentity(e);
+            scheduleAllocation(curatorFramework, worker);
+        }
+    }
+
+    /**
+     * 分配失败后延迟重试，在此期间生成ID的线程直接得到失败的原因
+     *
+     * @param curatorFramework the curator framework
+     * @param worker           the worker
+     */
+    private void scheduleAllocation(CuratorFramework curatorFramework, SnowflakeIdWorker worker) {
+        try {
+            allocationRetries.put(worker, allocateExecutor.schedule(() -> {
+                allocationRetries.remove(worker);
+                allocate(curatorFramework, worker);
+            }, zkProperty.getReallocateMaxBackoffMs(), TimeUnit.MILLISECONDS));
+        } catch (RejectedExecutionException e) {
+            allocating.remove(worker);
+        }
+    }
+
+    /**
+     * 与zk(重新)建立连接后立即重试等待中的分配，不必等到延迟结束
+     *
+     * @param curatorFramework the curator framework
+     */
+    private void retryAllocations(CuratorFramework curatorFramework) {
+        for (Map.Entry<SnowflakeIdWorker, ScheduledFuture<?>> entry : allocationRetries.entrySet()) {
+            SnowflakeIdWorker worker = entry.getKey();
+            if (entry.getValue().cancel(false) && allocationRetries.remove(worker, entry.getValue())) {
+                try {
+                    allocateExecutor.execute(() -> allocate(curatorFramework, worker));
+                } catch (RejectedExecutionException e) {
+                    allocating.remove(worker);
+                }
+            }
+        }
+    }
+
+    /**
+     * 为id生成器分配baseId并切换身份，失败后按指数退避重试
+     *
+     * @param curatorFramework the curator framework
+     * @param worker           the worker
+     * @throws Exception 重试用尽
+     */
+    private void reassignWithRetry(CuratorFramework curatorFramework, SnowflakeIdWorker worker) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                reassign(curatorFramework, worker);
+                return;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                if (attempt + 1 >= zkProperty.getReallocateMaxAttempts()) {
+                    throw e;
+                }
+                log.warn("reallocate baseId fail in attempt {}, because {}", attempt + 1, e.getMessage());
+                backoff(attempt, zkProperty.getReallocateBackoffMs(), zkProperty.getReallocateMaxBackoffMs());
+            }
+        }
+    }
+
+    /**
+     * 为id生成器重新分配baseId并切换身份
+     *
+     * @param curatorFramework the curator framework
+     * @param worker           the worker
+     * @throws Exception the exception
+     */
+    private void reassign(CuratorFramework curatorFramework, SnowflakeIdWorker worker) throws Exception {
+        // 优先换用备用baseId，无需等待重新分配
+        long baseId = takeHotSpare(curatorFramework);
+        if (baseId == -1) {
+            baseId = createBaseId(curatorFramework);
+        }
+        if (baseId == -1) {
+            throw new RuntimeException("baseId is illegal");
+        }
+        long floorMillis = readHighWater(curatorFramework, baseId);
+        long markMillis;
+        try {
+            markMillis = writeMark(curatorFramework, baseId, floorMillis);
+        } catch (Exception e) {
+            releaseBaseId(curatorFramework, baseId);
+            throw e;
+        }
+        worker.switchIdentity(toIdentity(baseId), floorMillis, markMillis);
+        trackNode(curatorFramework, worker, baseId);
+    }
+
+    /**
+     * 在后台于当前会话下重新占用租约中的baseId，确认后才启用身份；已被其他进程占用或者确认失败时按异步启动重新分配
+     * <p>
+     * 确认的依据是原baseId的临时节点仍属于租约中的旧会话，由服务端保证，与本机时钟无关。
+     *
+     * @param curatorFramework the curator framework
+     * @param worker           the worker
+     * @param lease            the lease
+     */
+    private void confirmLeaseAsync(CuratorFramework curatorFramework, SnowflakeIdWorker worker, WorkerIdLease.Lease lease) {
+        allocating.add(worker);
+        try {
+            allocateExecutor.execute(() -> {
+                long baseId = lease.getBaseId();
+                try {
+                    if (reclaimBaseId(curatorFramework, workFolder() + "/now/" + baseId, lease.getSessionId())) {
+                        if (reserveGlobal(curatorFramework, baseId, lease.getSessionId())) {
+                            long floorMillis = Math.max(lease.getLastTimestampMillis(), readHighWater(curatorFramework, baseId));
+                            long markMillis = writeMark(curatorFramework, baseId, floorMillis);
+                            worker.switchIdentity(toIdentity(baseId), floorMillis, markMillis);
+                            trackNode(curatorFramework, worker, baseId);
+                            allocating.remove(worker);
+                            log.info("confirm leased baseId {} success", baseId);
+                            claimHotSpareAsync(curatorFramework);
+                            return;
+                        }
+                        releaseBaseId(curatorFramework, baseId);
+                    }
+                    log.warn("leased baseId {} has been taken, reallocate", baseId);
+                } catch (Exception e) {
+                    log.warn("confirm leased baseId {} fail, because {}", baseId, e.getMessage());
+                }
+                allocate(curatorFramework, worker);
+            });
+        } catch (RejectedExecutionException e) {
+            allocating.remove(worker);
+            worker.failIdentity(e);
+        }
+    }
+
+    /**
+     * 记录id生成器新占用的baseId：开启重连后沿用原baseId时由PersistentNode维持其临时节点，
+     * 开启本地租约时为默认id生成器续约
+     *
+     * @param curatorFramework the curator framework
+     * @param worker           the worker
+     * @param baseId           the base id
+     */
+    private void trackNode(CuratorFramework curatorFramework, SnowflakeIdWorker worker, long baseId) {
+        String path = workFolder() + "/now/" + baseId;
+        if (workerIdLease != null && worker == SnowflakeIdWorker.getInstance()) {
+            workerIdLease.track(path, baseId, toIdentity(baseId), worker);
+        }
+        if (!zkProperty.isReclaimEnabled()) {
+            return;
+        }
+        WorkerIdNode node = new WorkerIdNode(curatorFramework, path, baseId);
+        node.start();
+        WorkerIdNode previous = workerNodes.put(worker, node);
+        if (previous != null) {
+            previous.abandon();
+        }
+    }
+
+    /**
+     * 开启心跳时，定时将每个id生成器的高水位写入/work/all/{baseId}
+     *
+     * @param curatorFramework the curator framework
+     */
+    private void startHeartbeat(CuratorFramework curatorFramework) {
+        if (!zkProperty.isHeartbeatEnabled() || heartbeatExecutor != null) {
+            return;
+        }
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snowflake-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = zkProperty.getHeartbeatIntervalMs();
+        heartbeatExecutor.scheduleWithFixedDelay(() -> heartbeat(curatorFramework), interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 开启心跳时，在启用身份之前同步写入一次高水位，覆盖启用后到下一次心跳之前可能生成的ID，写入失败时不能启用该身份
+     * <p>
+     * 写入的值与心跳相同，从当前时间与之前的持有者留下的高水位中的较大者算起；id生成器只生成不超过该值的ID，之后由心跳推进。
+     *
+     * @param curatorFramework the curator framework
+     * @param baseId           即将启用的baseId
+     * @param floorMillis      之前的持有者留下的高水位(毫秒)
+     * @return 写入的高水位(毫秒)，不开启心跳时为Long.MAX_VALUE
+     * @throws Exception 写入失败
+     */
+    private long writeMark(CuratorFramework curatorFramework, long baseId, long floorMillis) throws Exception {
+        if (!zkProperty.isHeartbeatEnabled()) {
+            return Long.MAX_VALUE;
+        }
+        long mark = Math.max(timeSource.currentTimeMillis(), floorMillis) + maxLeadMillis() + heartbeatAheadMillis();
+        curatorFramework.setData().forPath(workFolder() + "/all/" + baseId, Long.toString(mark).getBytes(StandardCharsets.UTF_8));
+        return mark;
+    }
+
+    /**
+     * id生成器的逻辑时间最多领先时钟的毫秒数，与{@link SnowflakeIdWorker#getMaxLeadMillis()}一致
+     *
+     * @return the max lead millis
+     */
+    private long maxLeadMillis() {
+        return Math.max(Math.max(workerProperty.getMaxLeadMillis(), workerProperty.getRollbackToleranceMillis()),
+                waitStrategy.borrowMillis());
+    }
+
+    /**
+     * 高水位在领先量之外提前的毫秒数，覆盖到下一次心跳之前、以及连接断开后直到会话丢失之前可能生成的ID
+     *
+     * @return the heartbeat ahead millis
+     */
+    private long heartbeatAheadMillis() {
+        return zkProperty.getHeartbeatIntervalMs() + zkProperty.getSessionTimeoutMs();
+    }
+
+    /**
+     * 将每个id生成器的高水位分别写入各自的/work/all/{baseId}
+     * <p>
+     * 高水位提前写入：写入的值为当前时间加上允许领先的时间、心跳间隔以及会话超时时间，
+     * 覆盖了到下一次心跳之前、以及连接断开后直到会话丢失之前可能生成的ID。
+     * 之后占用该baseId的进程只使用高水位之后的时间截，因此baseId可以被立即回收复用，即使两台机器的时钟存在偏差。
+     * 每个baseId单独写入，互不影响；写入成功后才推进id生成器可以使用的最大时间截，
+     * 持续写入失败时id生成器在越过最后一次写入成功的高水位前停止生成ID，不依赖会话丢失的通知。
+     *
+     * @param curatorFramework the curator framework
+     */
+    private void heartbeat(CuratorFramework curatorFramework) {
+        if (!curatorFramework.getZookeeperClient().isConnected()) {
+            return;
+        }
+        String allWorkFolder = workFolder() + "/all/";
+        long ahead = heartbeatAheadMillis();
+        for (SnowflakeIdWorker worker : managedWorkers) {
+            WorkerIdentity identity = worker.getIdentity();
+            if (identity == null) {
+                continue;
+            }
+            long baseId = toBaseId(identity);
+            // 高水位只增不减，时钟回退后仍保持已经写入的值
+            long mark = timeSource.currentTimeMillis() + worker.getMaxLeadMillis() + ahead;
+            long current = worker.getMarkMillis();
+            if (current != Long.MAX_VALUE) {
+                mark = Math.max(mark, current);
+            }
+            try {
+                curatorFramework.setData().forPath(allWorkFolder + baseId, Long.toString(mark).getBytes(StandardCharsets.UTF_8));
+                worker.extendMark(identity, mark);
+            } catch (Exception e) {
+                log.warn("heartbeat high water mark of baseId {} fail, because {}", baseId, e.getMessage());
+            }
+        }
+        // 备用baseId随时可能在时钟回退时被换用，换用时来不及写入，因此同样保持其高水位领先
+        HotSpare spare = hotSpare.get();
+        if (spare != null) {
+            long mark = Math.max(timeSource.currentTimeMillis() + maxLeadMillis() + ahead, spare.markMillis);
+            try {
+                curatorFramework.setData().forPath(allWorkFolder + spare.baseId, Long.toString(mark).getBytes(StandardCharsets.UTF_8));
+                spare.markMillis = mark;
+            } catch (Exception e) {
+                log.warn("heartbeat high water mark of spare baseId {} fail, because {}", spare.baseId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 读出baseId之前的持有者留下的高水位
+     *
+     * @param curatorFramework the curator framework
+     * @param baseId           the base id
+     * @return 高水位(毫秒)，没有时为0
+     * @throws Exception the exception
+     */
+    private long readHighWater(CuratorFramework curatorFramework, long baseId) throws Exception {
+        // 同一身份在另一种分配方式下使用过时同样留下了高水位
+        String otherPath;
+        Long dataCenterId = workerProperty.getDataCenterId();
+        if (dataCenterId != null) {
+            otherPath = "/work/all/" + ((dataCenterId << layout.getWorkerIdBits()) | baseId);
+        } else {
+            WorkerIdentity identity = toIdentity(baseId);
+            otherPath = "/work/" + identity.getDataCenterId() + "/all/" + identity.getWorkerId();
+        }
+        return Math.max(readHighWater(curatorFramework, workFolder() + "/all/" + baseId), readHighWater(curatorFramework, otherPath));
+    }
+
+    /**
+     * 读出节点中记录的高水位
+     *
+     * @param curatorFramework the curator framework
+     * @param path             /work/all/{baseId}或者/work/{dataCenterId}/all/{baseId}
+     * @return 高水位(毫秒)，没有时为0
+     * @throws Exception the exception
+     */
+    private long readHighWater(CuratorFramework curatorFramework, String path) throws Exception {
+        byte[] data;
+        try {
+            data = curatorFramework.getData().forPath(path);
+        } catch (KeeperException.NoNodeException e) {
+            return 0L;
+        }
+        if (data == null || data.length == 0) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(new String(data, StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            // 未开启心跳时节点中是curator默认写入的本机地址
+            return 0L;
+        }
+    }
+
+    /**
+     * 取出备用baseId，并在后台申请新的备用baseId
+     * <p>
+     * 备用baseId与正在使用的baseId属于同一个会话，会话丢失后其临时节点同样会被删除，
+     * 因此取出时先在当前会话下重新创建临时节点：创建成功或者节点已属于当前会话时才可以使用；
+     * 节点仍属于占用时的旧会话(服务端尚未清理)时，按版本号删除后在当前会话下重新创建；
+     * 否则说明已被其他进程占用，直接丢弃。通常只需一次zk往返，不需要遍历。
+     *
+     * @param curatorFramework the curator framework
+     * @return 备用baseId，没有可用的备用baseId时返回-1
+     */
+    private long takeHotSpare(CuratorFramework curatorFramework) {
+        HotSpare spare = hotSpare.getAndSet(null);
+        if (spare == null) {
+            return -1;
+        }
+        claimHotSpareAsync(curatorFramework);
+        long baseId = spare.baseId;
+        String path = workFolder() + "/now/" + baseId;
+        try {
+            if (!reclaimBaseId(curatorFramework, path, spare.sessionId)) {
+                log.warn("hot spare baseId {} has been taken by other process", baseId);
+                return -1;
+            }
+            if (!reserveGlobal(curatorFramework, baseId, spare.sessionId)) {
+                releaseBaseId(curatorFramework, baseId);
+                return -1;
+            }
+        } catch (Exception e) {
+            log.warn("reclaim hot spare baseId {} fail, because {}", baseId, e.getMessage());
+            return -1;
+        }
+        log.warn("switch to hot spare baseId {}", baseId);
+        return baseId;
+    }
+
+    /**
+     * 在当前会话下重新占用本进程曾经占用的baseId
+     *
+     * @param curatorFramework  the curator framework
+     * @param path              baseId对应的临时节点
+     * @param previousSessionId 占用时的zk会话
+     * @return 是否占用成功
+     * @throws Exception the exception
+     */
+    private boolean reclaimBaseId(CuratorFramework curatorFramework, String path, long previousSessionId) throws Exception {
+        long sessionId = curatorFramework.getZookeeperClient().getZooKeeper().getSessionId();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                curatorFramework.create().creatingParentContainersIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(path);
+                return true;
+            } catch (KeeperException.NodeExistsException e) {
+                Stat stat = curatorFramework.checkExists().forPath(path);
+                if (stat == null) {
+                    // 旧会话刚被清理，重新创建
+                    continue;
+                }
+                if (stat.getEphemeralOwner() == sessionId) {
+                    return true;
+                }
+                if (stat.getEphemeralOwner() != previousSessionId) {
+                    return false;
+                }
+                // 节点仍属于本进程已丢失的旧会话，删除后重新创建
+                try {
+                    curatorFramework.delete().withVersion(stat.getVersion()).forPath(path);
+                } catch (KeeperException.NoNodeException ex) {
+                    log.debug("{} has been removed with previous session", path);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在后台申请备用baseId，已有备用baseId时不再申请
+     * 每个进程最多只占用一个备用baseId，备用baseId被取出后才会申请新的，不会耗尽baseId；
+     * 开启热备或者时钟回退时换用备用身份时申请，同时读出其之前的持有者留下的高水位，取出时不必再访问zk
+     *
+     * @param curatorFramework the curator framework
+     */
+    private void claimHotSpareAsync(CuratorFramework curatorFramework) {
+        if (!(zkProperty.isHotSpareEnabled() || workerProperty.isRollbackSpareEnabled()) || hotSpare.get() != null) {
+            return;
+        }
+        try {
+            allocateExecutor.execute(() -> {
+                if (hotSpare.get() != null) {
+                    return;
+                }
+                try {
+                    long sessionId = currentSessionId(curatorFramework);
+                    long baseId = createBaseId(curatorFramework);
+                    if (baseId == -1) {
+                        log.warn("claim hot spare baseId fail, no baseId left");
+                        return;
+                    }
+                    // 占用期间其他进程无法使用该baseId，高水位不会再变化
+                    long floorMillis = readHighWater(curatorFramework, baseId);
+                    long markMillis;
+                    try {
+                        markMillis = writeMark(curatorFramework, baseId, floorMillis);
+                    } catch (Exception e) {
+                        releaseBaseId(curatorFramework, baseId);
+                        throw e;
+                    }
+                    HotSpare spare = new HotSpare(baseId, sessionId, floorMillis, markMillis);
+                    if (sessionId != currentSessionId(curatorFramework) || !hotSpare.compareAndSet(null, spare)) {
+                        releaseBaseId(curatorFramework, baseId);
+                    }
+                } catch (Exception e) {
+                    log.warn("claim hot spare baseId fail, because {}", e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("allocate executor has been shut down");
+        }
+    }
+
+    /**
+     * 释放占用的baseId，只删除属于当前会话的节点，会话丢失后节点可能已属于其他进程
+     *
+     * @param curatorFramework the curator framework
+     * @param baseId           the base id
+     */
+    private void releaseBaseId(CuratorFramework curatorFramework, long baseId) {
+        try {
+            deleteOwnedNode(curatorFramework, workFolder() + "/now/" + baseId);
+            if (workerProperty.getDataCenterId() != null) {
+                // 其他会话的全局节点是全局分配的进程占用的
+                deleteOwnedNode(curatorFramework, globalNowPath(baseId));
+            }
+        } catch (Exception e) {
+            log.warn("release baseId {} fail, because {}", baseId, e.getMessage());
+        }
+    }
+
+    private void deleteOwnedNode(CuratorFramework curatorFramework, String path) throws Exception {
+        Stat stat = curatorFramework.checkExists().forPath(path);
+        if (stat != null && stat.getEphemeralOwner() == currentSessionId(curatorFramework)) {
+            try {
+                curatorFramework.delete().withVersion(stat.getVersion()).forPath(path);
+            } catch (KeeperException.NoNodeException e) {
+                log.debug("{} has been removed", path);
+            }
+        }
+    }
+
+    /**
+     * 当前的zk会话，连接建立后只读取本地状态，不访问zk
+     *
+     * @param curatorFramework the curator framework
+     * @return the session id，未连接时为0
+     */
+    private static long currentSessionId(CuratorFramework curatorFramework) {
+        try {
+            if (!curatorFramework.getZookeeperClient().isConnected()) {
+                return 0L;
+            }
+            return curatorFramework.getZookeeperClient().getZooKeeper().getSessionId();
+        } catch (Exception e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * 按机房分配时，相同身份在全局分配中对应的/work/now/{baseId}
+     *
+     * @param baseId 按机房分配的baseId，即工作机器ID
+     * @return the path
+     */
+    private String globalNowPath(long baseId) {
+        return "/work/now/" + ((workerProperty.getDataCenterId() << layout.getWorkerIdBits()) | baseId);
+    }
+
+    /**
+     * 按机房分配时，同时在/work/now下占用相同身份在全局分配中对应的临时节点
+     * <p>
+     * 全局分配的进程同样通过创建该节点占用身份，zk上的创建是线性一致的，同一身份最多只有一方能够持有，
+     * 因此两种分配方式在同一zk集群上并存时不会得到相同的(数据中心ID, 工作机器ID)。全局分配时无需占用。
+     *
+     * @param curatorFramework  the curator framework
+     * @param baseId            按机房分配的baseId
+     * @param previousSessionId 本进程之前占用时的zk会话，没有时为0
+     * @return 是否占用成功，false表示该身份正被全局分配的进程使用
+     * @throws Exception the exception
+     */
+    private boolean reserveGlobal(CuratorFramework curatorFramework, long baseId, long previousSessionId) throws Exception {
+        if (workerProperty.getDataCenterId() == null) {
+            return true;
+        }
+        if (reclaimBaseId(curatorFramework, globalNowPath(baseId), previousSessionId)) {
+            return true;
+        }
+        log.warn("baseId {} is used by a process allocating from /work", baseId);
+        return false;
+    }
+
+    /**
+     * Create base id.
+     * 通过zk来分配base id
+     *
+     * @param curatorFramework the curator framework
+     * @return the long
+     * @throws Exception the exception
+     */
+    private long createBaseId(CuratorFramework curatorFramework) throws Exception {
+        if (workerProperty.getDataCenterId() == null) {
+            return allocateBaseId(curatorFramework);
+        }
+        // 全局节点被占用的baseId暂不释放，使下一轮分配跳过它们，分配结束后统一释放
+        List<Long> blocked = new ArrayList<>();
+        try {
+            for (int attempt = 0; attempt < zkProperty.getAllocateMaxAttempts(); attempt++) {
+                long baseId = allocateBaseId(curatorFramework);
+                if (baseId == -1 || reserveGlobal(curatorFramework, baseId, 0L)) {
+                    return baseId;
+                }
+                blocked.add(baseId);
+            }
+            log.error("create snowflakeId fail, baseIds are used by processes allocating from /work");
+            return -1;
+        } finally {
+            for (Long baseId : blocked) {
+                releaseBaseId(curatorFramework, baseId);
+            }
+        }
+    }
+
+    /**
+     * 按给定的位布局申请一个baseId，只抢占节点，不构建id生成器也不维持节点
+     * 用于在同一进程中模拟大量实例同时启动
+     *
+     * @param curatorFramework the curator framework
+     * @param layout           the bit layout
+     * @return 抢占到的baseId，失败时为-1
+     * @throws Exception the exception
+     */
+    long createBaseId(CuratorFramework curatorFramework, BitLayout layout) throws Exception {
+        this.layout = layout;
+        return createBaseId(curatorFramework);
+    }
+
+    /**
+     * 按配置的分配方式抢占baseId
+     *
+     * @param curatorFramework the curator framework
+     * @return the long
+     * @throws Exception the exception
+     */
+    private long allocateBaseId(CuratorFramework curatorFramework) throws Exception {
+        if (workerIdCache != null && workerIdCache.isInitialized()) {
+            long baseId = createBaseIdByCache(curatorFramework);
+            if (baseId != -1) {
+                return baseId;
+            }
+        }
+        if (zkProperty.getAllocator() == ZkProperty.AllocatorType.BITMAP) {
+            return createBaseIdByBitmap(curatorFramework);
+        }
+        return createBaseIdByChildren(curatorFramework);
+    }
+
+    /**
+     * 从本地缓存中挑选空闲的baseId抢占，不需要读取zk
+     *
+     * @param curatorFramework the curator framework
+     * @return 抢占到的baseId，缓存中的候选都抢占失败时返回-1
+     * @throws Exception the exception
+     */
+    private long createBaseIdByCache(CuratorFramework curatorFramework) throws Exception {
+        String nowWorkFolder = workFolder() + "/now";
+        long maxId = maxBaseId();
+        for (Long id : probeOrder(workerIdCache.getIdleIds(maxId))) {
+            try {
+                curatorFramework.create().withMode(CreateMode.EPHEMERAL).forPath(nowWorkFolder + "/" + id);
+                log.warn("create snowflakeId from cache success, baseId is {}, maxId is {}", id, maxId);
+                return id;
+            } catch (KeeperException.NodeExistsException e) {
+                // 缓存尚未收到其他进程抢占的通知
+                allocateConflictCount.incrementAndGet();
+                log.debug("baseId {} has been taken by other process", id);
+            } catch (KeeperException.NoNodeException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 遍历已使用过与正在使用的baseId分配
+     * 一轮抢占全部失败时按抖动的指数退避等待后重新读取，最多尝试{@link ZkProperty#getAllocateMaxAttempts()}轮
+     *
+     * @param curatorFramework the curator framework
+     * @return the long
+     * @throws Exception the exception
+     */
+    private long createBaseIdByChildren(CuratorFramework curatorFramework) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            long baseId = tryCreateBaseIdByChildren(curatorFramework);
+            if (baseId != CONFLICT) {
+                return baseId;
+            }
+            if (attempt + 1 >= zkProperty.getAllocateMaxAttempts()) {
+                log.error("create snowflakeId fail, too many conflicts after {} attempts", attempt + 1);
+                return -1;
+            }
+            backoff(attempt);
+        }
+    }
+
+    /**
+     * 遍历一轮已使用过与正在使用的baseId并尝试抢占
+     *
+     * @param curatorFramework the curator framework
+     * @return 抢占到的baseId，没有可用的baseId时返回-1，所有候选都被其他进程抢先时返回{@link #CONFLICT}
+     * @throws Exception the exception
+     */
+    private long tryCreateBaseIdByChildren(CuratorFramework curatorFramework) throws Exception {
+
+        String workFolder = workFolder();
+        String allWorkFolder = workFolder + "/all";
+        String nowWorkFolder = workFolder + "/now";
+        // 获取baseId的最大值
+        long maxId = maxBaseId();
+        // 检测是否有所需的节点，无则建立
+        curatorFramework.checkExists().creatingParentContainersIfNeeded().forPath(allWorkFolder + "/0");
+        curatorFramework.checkExists().creatingParentContainersIfNeeded().forPath(nowWorkFolder + "/0");
+        // 获取已经使用过的baseId集合
+        List<String> allWork = curatorFramework.getChildren().forPath(allWorkFolder);
+        // 获取当前正在使用的baseId集合
+        List<String> nowWork = curatorFramework.getChildren().forPath(nowWorkFolder);
+        Set<Long> issued = new HashSet<>();
+        for (String id : allWork) {
+            issued.add(Long.parseLong(id));
+        }
+        Set<Long> busy = new HashSet<>();
+        for (String id : nowWork) {
+            busy.add(Long.parseLong(id));
+        }
+
+        // 已经使用过但当前空闲的baseId，布局变窄后超出当前布局的baseId不能再使用
+        List<Long> idle = new ArrayList<>();
+        for (Long id : issued) {
+            if (id < maxId && !busy.contains(id)) {
+                idle.add(id);
+            }
+        }
+        Collections.sort(idle);
+        boolean conflict = false;
+        // 如果当前还有baseId未被使用，则利用临时节点抢占选取的baseId
+        for (Long id : probeOrder(idle)) {
+            try {
+                curatorFramework.create().withMode(CreateMode.EPHEMERAL).forPath(nowWorkFolder + "/" + id);
+                log.warn("create snowflakeId success, baseId is {}, maxId is {}", id, maxId);
+                return id;
+            } catch (KeeperException.NodeExistsException e) {
+                // 其他进程抢先一步，属于正常的竞争
+                conflict = true;
+                allocateConflictCount.incrementAndGet();
+                log.debug("baseId {} has been taken by other process", id);
+            }
+        }
+
+        // 如果没有未使用的baseId或者抢占失败，则从最小的若干个从未使用过的baseId中申请
+        List<Long> fresh = new ArrayList<>();
+        for (long id = 0; id < maxId && fresh.size() < zkProperty.getProbeSpread(); id++) {
+            if (!issued.contains(id) && !busy.contains(id)) {
+                fresh.add(id);
+            }
+        }
+        for (Long id : probeOrder(fresh)) {
+            try {
+                // 申请并抢占新的baseId
+                curatorFramework.create().withMode(CreateMode.PERSISTENT).forPath(allWorkFolder + "/" + id);
+                curatorFramework.create().withMode(CreateMode.EPHEMERAL).forPath(nowWorkFolder + "/" + id);
+                log.warn("create snowflakeId success, baseId is {}, maxId is {}", id, maxId);
+                return id;
+            } catch (KeeperException.NodeExistsException e) {
+                conflict = true;
+                allocateConflictCount.incrementAndGet();
+                log.debug("baseId {} has been taken by other process", id);
+            }
+        }
+
+        if (conflict) {
+            return CONFLICT;
+        }
+        log.error("create snowflakeId fail, all baseId less than {} have been used", maxId);
+        return -1;
+    }
+
+    /**
+     * 按配置的探测顺序排列候选的baseId
+     * 同时启动的进程读到的候选相同，打乱顺序后各自优先尝试不同的baseId，避免全部争抢最小的一个
+     *
+     * @param candidates 从小到大排列的候选
+     * @return 排列后的候选
+     */
+    private List<Long> probeOrder(List<Long> candidates) {
+        switch (zkProperty.getProbeOrder()) {
+            case RANDOM:
+                Collections.shuffle(candidates, ThreadLocalRandom.current());
+                break;
+            case HASHED:
+                // 同一进程每次得到相同的排列，不同进程的排列不同
+                Collections.shuffle(candidates, new Random(INSTANCE_SEED));
+                break;
+            case SEQUENTIAL:
+            default:
+        }
+        return candidates;
+    }
+
+    /**
+     * 分配冲突后按抖动的指数退避等待
+     *
+     * @param attempt 已经失败的次数，从0开始
+     * @throws InterruptedException the interrupted exception
+     */
+    private void backoff(int attempt) throws InterruptedException {
+        backoff(attempt, zkProperty.getAllocateBackoffMs(), zkProperty.getAllocateMaxBackoffMs());
+    }
+
+    /**
+     * 按抖动的指数退避等待，等待时间在[0, min(maxBackoffMs, backoffMs * 2^attempt)]中随机
+     *
+     * @param attempt      已经失败的次数，从0开始
+     * @param backoffMs    退避的基准时间，单位为ms
+     * @param maxBackoffMs 单次退避的最长时间，单位为ms
+     * @throws InterruptedException the interrupted exception
+     */
+    private static void backoff(int attempt, int backoffMs, int maxBackoffMs) throws InterruptedException {
+        long cap = Math.min(maxBackoffMs, (long) backoffMs << Math.min(attempt, 20));
+        if (cap > 0) {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+        }
+    }
+
+    /**
+     * 通过位图节点分配baseId
+     * <p>
+     * /work/bitmap中记录所有分配过的baseId，相当于/work/all的子节点集合；是否正在使用仍由/work/now下的临时节点决定。
+     * 每次分配读取位图与正在使用的baseId各一次，优先抢占分配过但当前空闲的baseId，只需创建一个临时节点；
+     * 否则在一个multi事务中带版本号更新位图，同时创建/work/all与/work/now下的节点，
+     * 版本冲突时说明其他进程刚分配过，重新读取后再试。zk往返次数与分配过的baseId数量无关。
+     * 仍然创建/work/all下的持久节点，以便与使用遍历方式的进程共存。
+     *
+     * @param curatorFramework the curator framework
+     * @return the long
+     * @throws Exception the exception
+     */
+    private long createBaseIdByBitmap(CuratorFramework curatorFramework) throws Exception {
+        String workFolder = workFolder();
+        String allWorkFolder = workFolder + "/all";
+        String nowWorkFolder = workFolder + "/now";
+        String bitmapPath = workFolder + "/bitmap";
+        long maxId = maxBaseId();
+        // 本次分配中发现已被遍历方式占用、但尚未记入位图的baseId
+        BitSet known = new BitSet();
+
+        for (int attempt = 0; attempt < zkProperty.getAllocateMaxAttempts(); attempt++) {
+            Stat stat = new Stat();
+            BitSet issued;
+            List<String> nowWork;
+            try {
+                issued = BitSet.valueOf(curatorFramework.getData().storingStatIn(stat).forPath(bitmapPath));
+                nowWork = curatorFramework.getChildren().forPath(nowWorkFolder);
+            } catch (KeeperException.NoNodeException e) {
+                initBitmap(curatorFramework, allWorkFolder, nowWorkFolder, bitmapPath);
+                continue;
+            }
+            Set<Long> busy = new HashSet<>();
+            for (String id : nowWork) {
+                busy.add(Long.parseLong(id));
+            }
+
+            // 优先抢占分配过但当前空闲的baseId
+            List<Long> idle = new ArrayList<>();
+            for (int id = issued.nextSetBit(0); id >= 0 && id < maxId; id = issued.nextSetBit(id + 1)) {
+                if (!busy.contains((long) id)) {
+                    idle.add((long) id);
+                }
+            }
+            for (Long id : probeOrder(idle)) {
+                try {
+                    curatorFramework.create().withMode(CreateMode.EPHEMERAL).forPath(nowWorkFolder + "/" + id);
+                    log.warn("create snowflakeId success, baseId is {}, maxId is {}", id, maxId);
+                    return id;
+                } catch (KeeperException.NodeExistsException e) {
+                    allocateConflictCount.incrementAndGet();
+                    log.debug("baseId {} has been taken by other process", id);
+                }
+            }
+
+            // 从最小的若干个从未使用过的baseId中申请，跳过正在使用但未记入位图的baseId
+            issued.or(known);
+            List<Long> fresh = new ArrayList<>();
+            for (int id = issued.nextClearBit(0); id < maxId && fresh.size() < zkProperty.getProbeSpread(); id = issued.nextClearBit(id + 1)) {
+                if (busy.contains((long) id)) {
+                    known.set(id);
+                } else {
+                    fresh.add((long) id);
+                }
+            }
+            if (fresh.isEmpty()) {
+                log.error("create snowflakeId fail, all baseId less than {} have been used", maxId);
+                return -1;
+            }
+            long id = probeOrder(fresh).get(0);
+            issued.or(known);
+            issued.set((int) id);
+            List<CuratorOp> operations = Arrays.asList(
+                    curatorFramework.transactionOp().setData().withVersion(stat.getVersion()).forPath(bitmapPath, issued.toByteArray()),
+                    curatorFramework.transactionOp().create().withMode(CreateMode.PERSISTENT).forPath(allWorkFolder + "/" + id),
+                    curatorFramework.transactionOp().create().withMode(CreateMode.EPHEMERAL).forPath(nowWorkFolder + "/" + id));
+            try {
+                curatorFramework.transaction().forOperations(operations);
+                log.warn("create snowflakeId success, baseId is {}, maxId is {}", id, maxId);
+                return id;
+            } catch (KeeperException.BadVersionException e) {
+                // 其他进程刚更新过位图，退避后重新读取
+                allocateConflictCount.incrementAndGet();
+                log.debug("bitmap version {} is stale, retry", stat.getVersion());
+                backoff(attempt);
+            } catch (KeeperException.NodeExistsException e) {
+                // 已被遍历方式分配过，下次重试时记入位图
+                allocateConflictCount.incrementAndGet();
+                known.set((int) id);
+            } catch (KeeperException.NoNodeException e) {
+                initBitmap(curatorFramework, allWorkFolder, nowWorkFolder, bitmapPath);
+            }
+        }
+        log.error("create snowflakeId fail, too many conflicts on {}", bitmapPath);
+        return -1;
+    }
+
+    /**
+     * 建立位图分配需要的节点，位图节点不存在时由/work/all的子节点生成
+     *
+     * @param curatorFramework the curator framework
+     * @param allWorkFolder    the all work folder
+     * @param nowWorkFolder    the now work folder
+     * @param bitmapPath       the bitmap path
+     * @throws Exception the exception
+     */
+    private void initBitmap(CuratorFramework curatorFramework, String allWorkFolder, String nowWorkFolder,
+                            String bitmapPath) throws Exception {
+        curatorFramework.checkExists().creatingParentContainersIfNeeded().forPath(allWorkFolder + "/0");
+        curatorFramework.checkExists().creatingParentContainersIfNeeded().forPath(nowWorkFolder + "/0");
+        if (curatorFramework.checkExists().forPath(bitmapPath) != null) {
+            return;
+        }
+        BitSet issued = new BitSet();
+        for (String id : curatorFramework.getChildren().forPath(allWorkFolder)) {
+            issued.set(Integer.parseInt(id));
+        }
+        try {
+            curatorFramework.create().withMode(CreateMode.PERSISTENT).forPath(bitmapPath, issued.toByteArray());
+        } catch (KeeperException.NodeExistsException e) {
+            log.debug("bitmap {} has been created by other process", bitmapPath);
+        }
+    }
+
+    /**
+     * The class Hot spare.
+     * 预先占用的备用baseId
+     */
+    private static final class HotSpare {
+
+        private final long baseId;
+        /**
+         * 占用时的zk会话，会话丢失后临时节点随之删除，需要重新占用
+         */
+        private final long sessionId;
+        /**
+         * 之前的持有者留下的高水位(毫秒)
+         */
+        private final long floorMillis;
+        /**
+         * 已经写入zk的高水位(毫秒)，由心跳推进
+         */
+        private volatile long markMillis;
+
+        private HotSpare(long baseId, long sessionId, long floorMillis, long markMillis) {
+            this.baseId = baseId;
+            this.sessionId = sessionId;
+            this.floorMillis = floorMillis;
+            this.markMillis = markMillis;
+        }
+    }
 }
@@ -0,0 +1,200 @@
+package com.sz.core.autoconfigure;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.utils.ZKPaths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The class Worker id cache.
+ * 通过TreeCache监听/work/all与/work/now，在内存中维护已分配过与正在使用的baseId
+ * <p>
+ * 会话丢失后重新分配时可以直接挑选一个已知空闲的baseId，只需一次创建临时节点即可完成，不必重新遍历zk。
+ * 缓存只用于挑选候选，是否抢占成功仍以临时节点创建的结果为准，因此缓存过期只会导致多一次冲突，不会导致重复。
+ *
+ * @since JDK 1.8
+ */
+public class WorkerIdCache implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkerIdCache.class);
+
+    private final TreeCache treeCache;
+    private final String allWorkFolder;
+    private final String nowWorkFolder;
+    /**
+     * 分配过的baseId
+     */
+    private final Set<Long> issued = ConcurrentHashMap.newKeySet();
+    /**
+     * 正在使用的baseId
+     */
+    private final Set<Long> live = ConcurrentHashMap.newKeySet();
+    /**
+     * 是否已完成首次同步
+     */
+    private volatile boolean initialized;
+    /**
+     * 与zk断开的时间，为0表示缓存与zk保持同步
+     */
+    private volatile long staleSince = System.currentTimeMillis();
+
+    /**
+     * 构造函数
+     *
+     * @param curatorFramework the curator framework
+     * @param workFolder       分配baseId使用的zk目录
+     */
+    public WorkerIdCache(CuratorFramework curatorFramework, String workFolder) {
+        this.allWorkFolder = workFolder + "/all";
+        this.nowWorkFolder = workFolder + "/now";
+        this.treeCache = TreeCache.newBuilder(curatorFramework, workFolder)
+                .setMaxDepth(2)
+                .setCacheData(false)
+                .build();
+        this.treeCache.getListenable().addListener((client, event) -> handle(event));
+    }
+
+    /**
+     * 开始监听
+     *
+     * @throws Exception the exception
+     */
+    public void start() throws Exception {
+        treeCache.start();
+    }
+
+    @Override
+    public void close() {
+        treeCache.close();
+    }
+
+    /**
+     * 是否已完成首次同步
+     *
+     * @return the boolean
+     */
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * 缓存已有多久没有与zk同步，单位为ms，同步中为0
+     *
+     * @return the staleness millis
+     */
+    public long getStalenessMillis() {
+        long since = staleSince;
+        return since == 0 ? 0 : System.currentTimeMillis() - since;
+    }
+
+    /**
+     * 分配过的baseId数量
+     *
+     * @return the issued count
+     */
+    public int getIssuedCount() {
+        return issued.size();
+    }
+
+    /**
+     * 正在使用的baseId数量
+     *
+     * @return the live count
+     */
+    public int getLiveCount() {
+        return live.size();
+    }
+
+    /**
+     * 分配过但当前空闲的baseId数量
+     *
+     * @return the idle count
+     */
+    public int getIdleCount() {
+        int count = 0;
+        for (Long id : issued) {
+            if (!live.contains(id)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 分配过但当前空闲的baseId，从小到大排列
+     *
+     * @param maxId baseId的上限(不含)
+     * @return the idle ids
+     */
+    public List<Long> getIdleIds(long maxId) {
+        List<Long> idle = new ArrayList<>();
+        for (Long id : issued) {
+            if (id < maxId && !live.contains(id)) {
+                idle.add(id);
+            }
+        }
+        Collections.sort(idle);
+        return idle;
+    }
+
+    private void handle(TreeCacheEvent event) {
+        switch (event.getType()) {
+            case NODE_ADDED:
+                update(event.getData(), true);
+                break;
+            case NODE_REMOVED:
+                update(event.getData(), false);
+                break;
+            case INITIALIZED:
+                initialized = true;
+                staleSince = 0;
+                break;
+            case CONNECTION_SUSPENDED:
+            case CONNECTION_LOST:
+                if (staleSince == 0) {
+                    staleSince = System.currentTimeMillis();
+                }
+                break;
+            case CONNECTION_RECONNECTED:
+                // 重连后TreeCache会重新读取并补发变更
+                staleSince = 0;
+                break;
+            default: {
+            }
+        }
+    }
+
+    private void update(ChildData data, boolean added) {
+        ZKPaths.PathAndNode pathAndNode = ZKPaths.getPathAndNode(data.getPath());
+        Set<Long> target;
+        if (allWorkFolder.equals(pathAndNode.getPath())) {
+            target = issued;
+        } else if (nowWorkFolder.equals(pathAndNode.getPath())) {
+            target = live;
+        } else {
+            return;
+        }
+        long id;
+        try {
+            id = Long.parseLong(pathAndNode.getNode());
+        } catch (NumberFormatException e) {
+            log.debug("ignore unknown node {}", data.getPath());
+            return;
+        }
+        if (added) {
+            target.add(id);
+        } else {
+            target.remove(id);
+        }
+    }
+}
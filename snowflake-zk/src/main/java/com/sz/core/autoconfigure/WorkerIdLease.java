@@ -0,0 +1,305 @@
+package com.sz.core.autoconfigure;
+
+import com.sz.core.utils.SnowflakeIdWorker;
+import com.sz.core.utils.WorkerIdentity;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * The class Worker id lease.
+ * 将默认id生成器占用的baseId以租约的形式记录在本地的内存映射文件中，进程异常退出后在租约期内重启可以跳过分配时的探测，直接确认原baseId
+ * <p>
+ * 租约的依据是/work/now/{baseId}临时节点：进程异常退出后，服务端在会话超时之前不会删除该节点，其他进程也就无法占用该baseId。
+ * 每次续约时先记下时间，再确认节点仍属于当前会话，租约到期时间为记下的时间加上协商后的会话超时时间，
+ * 服务端至少在此之前都会保留该节点。正常关闭时会话随之关闭、节点被删除，因此关闭时作废租约。
+ * <p>
+ * 到期时间按本机时钟计算，时钟回退后已经过期的租约同样可能看似有效，因此到期时间只用来筛掉明显过期的租约：
+ * 沿用前必须在新会话下确认该节点仍属于租约中的旧会话并重新占用，确认由服务端保证，在此之前id生成器不生成ID。
+ * <p>
+ * 最后时间截是提前写入的：每次续约时写入当前时间加上续约间隔与允许领先的时间，续约失败时也照常推进，
+ * 覆盖了到下一次续约之前可能生成的ID。重启时只有在租约未到期、文件校验通过、与当前的zk目录和位布局一致时才会尝试沿用，
+ * 确认后只使用最后时间截之后的时间截；节点已被删除或者属于其他会话时重新分配。
+ * 文件通过文件锁保证同一时刻只有一个进程使用。
+ *
+ * @since JDK 1.8
+ */
+public class WorkerIdLease implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkerIdLease.class);
+
+    /**
+     * 文件大小：目录与布局的校验值、baseId、会话、租约到期时间、最后时间截，以及前面各项的CRC32
+     */
+    private static final int LEASE_SIZE = 48;
+    private static final int KEY_OFFSET = 0;
+    private static final int BASE_ID_OFFSET = 8;
+    private static final int SESSION_ID_OFFSET = 16;
+    private static final int EXPIRY_OFFSET = 24;
+    private static final int LAST_TIMESTAMP_OFFSET = 32;
+    private static final int CRC_OFFSET = 40;
+    /**
+     * 租约到期前预留的时间，用于抵消定时任务的调度延迟，单位为ms
+     */
+    private static final long LEASE_MARGIN_MS = 500L;
+
+    private final CuratorFramework curatorFramework;
+    private final Path file;
+    private final long key;
+    private final long renewIntervalMs;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "snowflake-lease");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private FileChannel channel;
+    private FileLock fileLock;
+    private MappedByteBuffer buffer;
+
+    /**
+     * 正在续约的baseId对应的临时节点，为null时不续约
+     */
+    private volatile String path;
+    private volatile long baseId = -1L;
+    private volatile WorkerIdentity identity;
+    private volatile SnowflakeIdWorker worker;
+
+    /**
+     * 构造函数
+     *
+     * @param curatorFramework the curator framework
+     * @param file             租约文件
+     * @param scope            分配baseId使用的zk目录与位布局，变化后原有租约作废
+     * @param sessionTimeoutMs 会话超时时间，每隔三分之一续约一次
+     */
+    public WorkerIdLease(CuratorFramework curatorFramework, String file, String scope, long sessionTimeoutMs) {
+        this.curatorFramework = curatorFramework;
+        this.file = Paths.get(file);
+        CRC32 crc = new CRC32();
+        crc.update(scope.getBytes(StandardCharsets.UTF_8));
+        this.key = crc.getValue();
+        this.renewIntervalMs = Math.max(1L, sessionTimeoutMs / 3);
+    }
+
+    /**
+     * 打开租约文件并开始定时续约，文件已被其他进程锁定时不使用租约
+     *
+     * @throws IOException the io exception
+     */
+    public void start() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        fileLock = channel.tryLock();
+        if (fileLock == null) {
+            log.warn("lease file {} is locked by another process, lease disabled", file);
+            channel.close();
+            channel = null;
+            return;
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, LEASE_SIZE);
+        scheduler.scheduleWithFixedDelay(this::renew, renewIntervalMs, renewIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 读取按本机时钟尚未到期的租约，沿用前仍需与zk确认
+     *
+     * @return 尚未到期的租约，没有时为null
+     */
+    public synchronized Lease resume() {
+        if (buffer == null) {
+            return null;
+        }
+        if (buffer.getLong(CRC_OFFSET) != checksum() || buffer.getLong(KEY_OFFSET) != key) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Lease lease = new Lease(buffer.getLong(BASE_ID_OFFSET), buffer.getLong(SESSION_ID_OFFSET), buffer.getLong(EXPIRY_OFFSET),
+                buffer.getLong(LAST_TIMESTAMP_OFFSET));
+        if (lease.baseId < 0 || now >= lease.expiryMillis - LEASE_MARGIN_MS) {
+            return null;
+        }
+        return lease;
+    }
+
+    /**
+     * 开始为id生成器当前占用的baseId续约，立即续约一次
+     *
+     * @param path     baseId对应的临时节点
+     * @param baseId   the base id
+     * @param identity baseId对应的身份
+     * @param worker   the worker
+     */
+    public void track(String path, long baseId, WorkerIdentity identity, SnowflakeIdWorker worker) {
+        this.baseId = baseId;
+        this.identity = identity;
+        this.worker = worker;
+        this.path = path;
+        try {
+            scheduler.execute(this::renew);
+        } catch (Exception e) {
+            log.debug("lease scheduler has been shut down");
+        }
+    }
+
+    /**
+     * 停止续约并作废租约
+     */
+    @Override
+    public synchronized void close() {
+        scheduler.shutdownNow();
+        if (buffer != null) {
+            write(-1L, 0L, 0L, 0L);
+            buffer = null;
+        }
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.warn("close lease file {} fail, because {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * 确认临时节点仍属于当前会话后延长租约，身份已经变化或者节点不再属于当前会话时作废租约
+     */
+    private void renew() {
+        String path = this.path;
+        SnowflakeIdWorker worker = this.worker;
+        if (path == null || buffer == null) {
+            return;
+        }
+        long baseId = this.baseId;
+        if (!identity.equals(worker.getIdentity())) {
+            // 时钟大幅回退后切换到了备用身份，原baseId的最后时间截已无法确定
+            invalidate();
+            return;
+        }
+        long start = System.currentTimeMillis();
+        // 提前写入，到下一次续约之前生成的ID的时间截都不会超过该值，预留的时间用于抵消调度延迟
+        long lastTimestamp = start + renewIntervalMs + LEASE_MARGIN_MS + worker.getMaxLeadMillis();
+        try {
+            ZooKeeper zooKeeper = curatorFramework.getZookeeperClient().getZooKeeper();
+            long sessionId = zooKeeper.getSessionId();
+            Stat stat = curatorFramework.checkExists().forPath(path);
+            if (stat == null || stat.getEphemeralOwner() != sessionId) {
+                invalidate();
+                return;
+            }
+            synchronized (this) {
+                if (buffer != null && this.path == path) {
+                    write(baseId, sessionId, start + zooKeeper.getSessionTimeout(), lastTimestamp);
+                }
+            }
+        } catch (Exception e) {
+            // 续约失败时保留原有租约，到期前服务端同样不会删除节点；id生成器仍在发号，最后时间截照常推进
+            log.debug("renew lease of baseId {} fail, because {}", baseId, e.getMessage());
+            synchronized (this) {
+                if (buffer != null && this.path == path && buffer.getLong(CRC_OFFSET) == checksum()
+                        && buffer.getLong(BASE_ID_OFFSET) == baseId) {
+                    write(baseId, buffer.getLong(SESSION_ID_OFFSET), buffer.getLong(EXPIRY_OFFSET), lastTimestamp);
+                }
+            }
+        }
+    }
+
+    private synchronized void invalidate() {
+        if (buffer != null) {
+            write(-1L, 0L, 0L, 0L);
+        }
+    }
+
+    private void write(long baseId, long sessionId, long expiryMillis, long lastTimestamp) {
+        long previous = buffer.getLong(CRC_OFFSET) == checksum() ? buffer.getLong(LAST_TIMESTAMP_OFFSET) : 0L;
+        buffer.putLong(KEY_OFFSET, key);
+        buffer.putLong(BASE_ID_OFFSET, baseId);
+        buffer.putLong(SESSION_ID_OFFSET, sessionId);
+        buffer.putLong(EXPIRY_OFFSET, expiryMillis);
+        // 最后时间截只增不减
+        buffer.putLong(LAST_TIMESTAMP_OFFSET, Math.max(previous, lastTimestamp));
+        // 最后写入校验值，进程在写入中途退出时校验失败，租约视为无效
+        buffer.putLong(CRC_OFFSET, checksum());
+    }
+
+    private long checksum() {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < CRC_OFFSET; i++) {
+            crc.update(buffer.get(i));
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * The class Lease.
+     * 从文件中读出的有效租约
+     */
+    public static final class Lease {
+
+        private final long baseId;
+        private final long sessionId;
+        private final long expiryMillis;
+        private final long lastTimestampMillis;
+
+        private Lease(long baseId, long sessionId, long expiryMillis, long lastTimestampMillis) {
+            this.baseId = baseId;
+            this.sessionId = sessionId;
+            this.expiryMillis = expiryMillis;
+            this.lastTimestampMillis = lastTimestampMillis;
+        }
+
+        public long getBaseId() {
+            return baseId;
+        }
+
+        /**
+         * 占用baseId的旧会话
+         *
+         * @return the session id
+         */
+        public long getSessionId() {
+            return sessionId;
+        }
+
+        /**
+         * 租约到期时间(毫秒)，服务端在此之前不会删除旧会话的临时节点
+         *
+         * @return the expiry millis
+         */
+        public long getExpiryMillis() {
+            return expiryMillis;
+        }
+
+        /**
+         * 之前的进程使用过的最大时间截(毫秒)，沿用后只使用其后的时间截
+         *
+         * @return the last timestamp millis
+         */
+        public long getLastTimestampMillis() {
+            return lastTimestampMillis;
+        }
+    }
+}
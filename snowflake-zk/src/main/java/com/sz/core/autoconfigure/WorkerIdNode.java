@@ -0,0 +1,153 @@
+package com.sz.core.autoconfigure;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.nodes.PersistentNode;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The class Worker id node.
+ * 通过PersistentNode维持/work/now/{baseId}临时节点，会话丢失重连后在新会话下重建，使id生成器沿用原来的baseId
+ * <p>
+ * PersistentNode遇到同名节点已存在时会直接沿用，不会检查节点属于哪个会话，
+ * 因此重连后需要通过{@link #reclaim(long)}确认节点确实属于当前会话：
+ * 节点仍属于已丢失的旧会话时将其删除，由PersistentNode重新创建；属于其他会话时说明baseId已被其他进程占用，需要重新分配。
+ * 未使用保护模式(protection)，因为保护模式会在节点名前加上随机前缀，同名节点不再互斥，无法保证baseId唯一。
+ *
+ * @since JDK 1.8
+ */
+public class WorkerIdNode implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkerIdNode.class);
+
+    /**
+     * 确认节点归属的轮询间隔，单位为ms
+     */
+    private static final long RECLAIM_POLL_MS = 20L;
+
+    private final CuratorFramework curatorFramework;
+    private final String path;
+    private final long baseId;
+    private final PersistentNode node;
+    /**
+     * 已确认持有节点的会话
+     */
+    private volatile long ownerSessionId;
+    /**
+     * baseId已被其他进程占用，关闭时不能删除节点
+     */
+    private volatile boolean abandoned;
+
+    /**
+     * 构造函数
+     *
+     * @param curatorFramework the curator framework
+     * @param path             baseId对应的临时节点
+     * @param baseId           the base id
+     */
+    public WorkerIdNode(CuratorFramework curatorFramework, String path, long baseId) {
+        this.curatorFramework = curatorFramework;
+        this.path = path;
+        this.baseId = baseId;
+        this.node = new PersistentNode(curatorFramework, CreateMode.EPHEMERAL, false, path, new byte[0]) {
+            @Override
+            protected void deleteNode() throws Exception {
+                if (!abandoned) {
+                    super.deleteNode();
+                }
+            }
+        };
+    }
+
+    /**
+     * 开始维持节点，调用方需已在当前会话下创建了该节点
+     */
+    public void start() {
+        ownerSessionId = currentSessionId();
+        node.start();
+    }
+
+    /**
+     * 重连后等待节点在当前会话下重建
+     *
+     * @param timeoutMs 最长等待时间，单位为ms
+     * @return 是否重新持有baseId，false表示已被其他进程占用或者超时
+     * @throws Exception the exception
+     */
+    public boolean reclaim(long timeoutMs) throws Exception {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        long previousSessionId = ownerSessionId;
+        do {
+            Stat stat = curatorFramework.checkExists().forPath(path);
+            if (stat != null) {
+                long sessionId = currentSessionId();
+                long owner = stat.getEphemeralOwner();
+                if (owner == sessionId) {
+                    ownerSessionId = sessionId;
+                    log.warn("reclaim baseId {} success in {} ms", baseId,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    return true;
+                }
+                if (owner != previousSessionId) {
+                    log.warn("baseId {} has been taken by session {}", baseId, owner);
+                    return false;
+                }
+                // 旧会话尚未被服务端清理，删除后由PersistentNode在当前会话下重建
+                try {
+                    curatorFramework.delete().withVersion(stat.getVersion()).forPath(path);
+                } catch (KeeperException.NoNodeException | KeeperException.BadVersionException e) {
+                    log.debug("{} has changed, because {}", path, e.getMessage());
+                }
+            }
+            Thread.sleep(RECLAIM_POLL_MS);
+        } while (System.nanoTime() - deadline < 0);
+        log.warn("reclaim baseId {} timeout after {} ms", baseId, timeoutMs);
+        return false;
+    }
+
+    /**
+     * 放弃该baseId并停止维持节点，节点可能已属于其他进程，不会删除
+     */
+    public void abandon() {
+        abandoned = true;
+        close();
+    }
+
+    @Override
+    public void close() {
+        try {
+            node.close();
+        } catch (IOException e) {
+            log.warn("close node {} fail, because {}", path, e.getMessage());
+        }
+    }
+
+    public long getBaseId() {
+        return baseId;
+    }
+
+    /**
+     * 最近一次确认持有节点的会话
+     *
+     * @return the owner session id
+     */
+    public long getOwnerSessionId() {
+        return ownerSessionId;
+    }
+
+    private long currentSessionId() {
+        try {
+            return curatorFramework.getZookeeperClient().getZooKeeper().getSessionId();
+        } catch (Exception e) {
+            return 0L;
+        }
+    }
+}
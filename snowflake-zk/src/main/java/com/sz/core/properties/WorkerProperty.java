@@ -0,0 +1,248 @@
+package com.sz.core.properties;
+
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The class Worker property.
+ * id生成器相关配置
+ *
+ * @since JDK 1.8
+ */
+@ConfigurationProperties(prefix = WorkerProperty.PREFIX)
+@Data
+public class WorkerProperty {
+
+    public static final String PREFIX = "sz.worker.config";
+
+    /**
+     * The Lock free.
+     * 是否使用基于CAS的无锁模式生成id，为false时使用加锁模式
+     */
+    private boolean lockFree = false;
+
+    /**
+     * The Max lead millis.
+     * 毫秒内序列溢出时允许借用的未来毫秒数，为0时阻塞到下一毫秒；与rollbackToleranceMillis相互独立
+     */
+    private long maxLeadMillis = 0;
+
+    /**
+     * The Rollback tolerance millis.
+     * 时钟回退不超过该毫秒数时沿用上次的逻辑时间戳继续生成id，只在时钟回退时生效，序列溢出时是否借用由maxLeadMillis决定
+     */
+    private long rollbackToleranceMillis = 5;
+
+    /**
+     * The Rollback max wait millis.
+     * 时钟回退不超过该毫秒数时挂起等待时钟追回
+     */
+    private long rollbackMaxWaitMillis = 100;
+
+    /**
+     * The Rollback spare enabled.
+     * 时钟回退超过等待上限时，是否换用备用的workId继续生成id，为false时抛出异常；
+     * 开启后每个进程额外预先占用一个备用baseId，换用时不访问zk，之后在后台记下原baseId的最大时间截后释放原baseId并申请新的备用baseId
+     */
+    private boolean rollbackSpareEnabled = false;
+
+    /**
+     * The Wait strategy.
+     * 等待时钟前进时的策略
+     */
+    private WaitStrategyType waitStrategy = WaitStrategyType.SPIN;
+
+    /**
+     * The Sequence strategy.
+     * 进入新的tick时序列的起始值，低并发下按id取模分表时可选CARRY或RANDOM使低位分布均匀
+     */
+    private SequenceStrategyType sequenceStrategy = SequenceStrategyType.RESET;
+
+    /**
+     * The Wait park nanos.
+     * PARK及BORROW策略每次挂起的时长，单位为ns
+     */
+    private long waitParkNanos = 50_000;
+
+    /**
+     * The Wait borrow millis.
+     * BORROW策略允许借用的未来毫秒数
+     */
+    private long waitBorrowMillis = 5;
+
+    /**
+     * The Data center id.
+     * 本机房的数据中心ID，配置后只从zk的/work/{dataCenterId}下分配工作机器ID，各机房可以使用各自的zk集群；
+     * 不配置时沿用全局分配，由zk分配的baseId同时决定数据中心ID与工作机器ID
+     * 两种方式在同一zk集群上并存时，按机房分配的进程同时占用/work/now下对应的全局节点，不会与全局分配的进程得到相同的身份；
+     * 使用不同的zk集群时无法互斥，切换过程中两种方式不能同时运行
+     */
+    private Long dataCenterId;
+
+    /**
+     * The Epoch.
+     * 开始时间截，单位为ms
+     */
+    private long epoch = 1512057600000L;
+
+    /**
+     * The Tick millis.
+     * 时间截的单位，单位为ms，例如10即与Sonyflake相同；开始时间截必须是它的整数倍
+     */
+    private long tickMillis = 1;
+
+    /**
+     * The Timestamp bits.
+     * 时间截所占的位数
+     */
+    private int timestampBits = 41;
+
+    /**
+     * The Data center id bits.
+     * 数据中心ID所占的位数
+     */
+    private int dataCenterIdBits = 5;
+
+    /**
+     * The Worker id bits.
+     * 工作机器ID所占的位数
+     */
+    private int workerIdBits = 5;
+
+    /**
+     * The Sequence bits.
+     * 序列所占的位数，与以上三者之和不能超过63
+     */
+    private int sequenceBits = 12;
+
+    /**
+     * The Shard bits.
+     * 分片(基因)所占的位数，放在序列之后的最低位，默认为0即不带分片，与以上四者之和不能超过63
+     */
+    private int shardBits = 0;
+
+    /**
+     * The Names.
+     * 以,隔开或者写成列表的名称集合，每个名称对应一个拥有独立workId的id生成器，并注册为同名bean
+     */
+    private List<String> names = new ArrayList<>();
+
+    /**
+     * The Cache enabled.
+     * 是否额外提供带环形缓存的id生成器
+     */
+    private boolean cacheEnabled = false;
+
+    /**
+     * The Cache buffer size.
+     * 环形缓存大小，必须为2的幂
+     */
+    private int cacheBufferSize = 8192;
+
+    /**
+     * The Cache padding factor.
+     * 剩余id低于缓存大小的百分之多少时触发填充
+     */
+    private int cachePaddingFactor = 50;
+
+    /**
+     * The Cache schedule interval ms.
+     * 定时填充缓存的间隔，单位为ms，小于等于0时只在低于阈值时填充
+     */
+    private long cacheScheduleIntervalMs = 0;
+
+    /**
+     * The Stripe enabled.
+     * 是否额外提供按线程分段租用序列的id生成器
+     */
+    private boolean stripeEnabled = false;
+
+    /**
+     * The Stripe lease size.
+     * 每个线程每次租用的序列数量
+     */
+    private int stripeLeaseSize = 64;
+
+    /**
+     * The Time source.
+     * id生成器使用的时钟，TICKER为后台线程缓存的时钟，SYSTEM为每次直接读取系统时间
+     */
+    private TimeSourceType timeSource = TimeSourceType.TICKER;
+
+    /**
+     * The Ticker resolution micros.
+     * 缓存时钟的推进精度，单位为微秒
+     */
+    private long tickerResolutionMicros = 100;
+
+    /**
+     * The Journal file.
+     * 高水位日志文件，配置后定期将已使用的最大时间截写入该文件，重启时只使用其后的时间截，防止重启期间时钟回退导致重复发号；
+     * 命名id生成器使用以.{名称}为后缀的文件
+     */
+    private String journalFile;
+
+    /**
+     * The Journal window millis.
+     * 高水位每次推进时领先的毫秒数，每个窗口只写一次文件；越大写入越少，重启后可能需要等待的时间也越长
+     */
+    private long journalWindowMillis = 1000;
+
+    /**
+     * The enum Time source type.
+     */
+    public enum TimeSourceType {
+        /**
+         * 后台线程缓存的时钟
+         */
+        TICKER,
+        /**
+         * 直接读取系统时间
+         */
+        SYSTEM
+    }
+
+    /**
+     * The enum Wait strategy type.
+     */
+    public enum WaitStrategyType {
+        /**
+         * 忙等
+         */
+        SPIN,
+        /**
+         * 自旋后让出CPU
+         */
+        YIELD,
+        /**
+         * 挂起线程
+         */
+        PARK,
+        /**
+         * 借用未来时间，超出后挂起线程
+         */
+        BORROW
+    }
+
+    /**
+     * The enum Sequence strategy type.
+     */
+    public enum SequenceStrategyType {
+        /**
+         * 每个tick都从0开始
+         */
+        RESET,
+        /**
+         * 接着上一次的序列继续计数
+         */
+        CARRY,
+        /**
+         * 从随机位置开始
+         */
+        RANDOM
+    }
+}
@@ -49,4 +49,140 @@ public class ZkProperty {
      * 连接超时时间
      */
     private int connectionTimeoutMs = 1000;
+
+    /**
+     * The Allocator.
+     * baseId的分配方式，CHILDREN为遍历/work/all与/work/now的子节点，BITMAP为读写一个记录已分配baseId的位图节点
+     */
+    private AllocatorType allocator = AllocatorType.CHILDREN;
+
+    /**
+     * The Probe order.
+     * 尝试候选baseId的顺序，大量实例同时启动时使用RANDOM或HASHED可以避免都去争抢最小的baseId
+     */
+    private ProbeOrderType probeOrder = ProbeOrderType.SEQUENTIAL;
+
+    /**
+     * The Probe spread.
+     * 申请从未使用过的baseId时，在最小的多少个中挑选
+     */
+    private int probeSpread = 32;
+
+    /**
+     * The Allocate max attempts.
+     * 分配冲突时最多尝试的轮数
+     */
+    private int allocateMaxAttempts = 32;
+
+    /**
+     * The Allocate backoff ms.
+     * 分配冲突后退避的基准时间，每轮翻倍并在其范围内随机抖动，单位为ms
+     */
+    private int allocateBackoffMs = 20;
+
+    /**
+     * The Allocate max backoff ms.
+     * 分配冲突后单次退避的最长时间，单位为ms
+     */
+    private int allocateMaxBackoffMs = 1000;
+
+    /**
+     * The Reallocate max attempts.
+     * 会话丢失重连后重新分配以及异步启动时申请baseId失败时最多尝试的次数
+     */
+    private int reallocateMaxAttempts = 10;
+
+    /**
+     * The Reallocate backoff ms.
+     * 重新分配失败后退避的基准时间，每次翻倍并在其范围内随机抖动，单位为ms
+     */
+    private int reallocateBackoffMs = 100;
+
+    /**
+     * The Reallocate max backoff ms.
+     * 重新分配失败后单次退避的最长时间，单位为ms
+     */
+    private int reallocateMaxBackoffMs = 10000;
+
+    /**
+     * The Async start enabled.
+     * 是否异步启动，开启后id生成器的bean立即构建完成，在后台线程中申请baseId，首次生成id时才等待申请完成
+     */
+    private boolean asyncStartEnabled = false;
+
+    /**
+     * The Start timeout ms.
+     * 异步启动或者身份被撤销时，生成id等待baseId申请完成的最长时间，超时抛出异常，单位为ms
+     */
+    private long startTimeoutMs = 30000;
+
+    /**
+     * The Lease file.
+     * 本地租约文件，配置后记录默认id生成器占用的baseId，进程异常退出后在会话超时之前重启可以跳过分配时的探测，
+     * 与zk确认原baseId的临时节点仍属于旧会话后直接沿用，确认之前不生成ID；需要配合足够长的session超时时间
+     */
+    private String leaseFile;
+
+    /**
+     * The Heartbeat enabled.
+     * 是否定时将每个id生成器的高水位写入/work/all/{baseId}，之后占用该baseId的进程只使用其后的时间截，使baseId可以被安全地立即复用
+     */
+    private boolean heartbeatEnabled = false;
+
+    /**
+     * The Heartbeat interval ms.
+     * 写入高水位的间隔，同一次写入合并所有id生成器，单位为ms
+     */
+    private long heartbeatIntervalMs = 3000;
+
+    /**
+     * The Cache enabled.
+     * 是否通过TreeCache在本地缓存baseId的分配情况，会话丢失后重新分配时直接挑选已知空闲的baseId
+     */
+    private boolean cacheEnabled = false;
+
+    /**
+     * The Hot spare enabled.
+     * 是否为每个进程额外占用一个备用baseId，会话丢失重连后直接换用，之后在后台申请新的备用baseId；
+     * 时钟大幅回退时换用的备用baseId由sz.worker.config.rollback-spare-enabled控制，两者共用同一个备用baseId
+     */
+    private boolean hotSpareEnabled = false;
+
+    /**
+     * The Reclaim enabled.
+     * 是否由PersistentNode维持正在使用的baseId节点，会话丢失重连后沿用原baseId，只有被其他进程占用时才重新分配
+     */
+    private boolean reclaimEnabled = false;
+
+    /**
+     * The enum Allocator type.
+     */
+    public enum AllocatorType {
+        /**
+         * 遍历子节点，zk往返次数随已分配的baseId数量增长
+         */
+        CHILDREN,
+        /**
+         * 位图节点加版本号的multi事务，zk往返次数与已分配的baseId数量无关
+         */
+        BITMAP
+    }
+
+    /**
+     * The enum Probe order type.
+     */
+    public enum ProbeOrderType {
+        /**
+         * 从小到大
+         */
+        SEQUENTIAL,
+        /**
+         * 每次随机打乱
+         */
+        RANDOM,
+        /**
+         * 按进程号与主机名得到的固定排列
+         */
+        HASHED
+    }
 }
@@ -0,0 +1,301 @@
+package com.sz.core.utils;
+
+import java.time.Instant;
+
+/**
+ * The class Bit layout.
+ * id的位布局，包括开始时间截、时间截的单位(tick)以及时间截、数据中心ID、工作机器ID、序列各自所占的位数
+ * <p>
+ * 各部分位数之和不能超过63位，最高位固定为0以保证id为正数。
+ * tick默认为1ms；调大tick(例如Sonyflake的10ms，或者1s)后，同样的时间截位数可以覆盖更长的年限，
+ * 每个tick内的序列也能容纳更大的突发量，代价是id中的时间精度降低。
+ * <p>
+ * 可选的分片位(基因位)放在序列之后的最低位，取值为调用方给出的分片号或分片键的低位，
+ * 这样按分片键对2的幂取模分库分表时，id与分片键落在同一个分片，路由只需位运算而不必查分片目录。
+ * 移位量与掩码在构造时一次算好，id生成器会把它们复制到自身的字段中，省去一次间接访问。
+ * 注意HotSpot不会把实例的final字段当作常量折叠，热路径上每个移位量仍是一次(通常命中L1的)读取，
+ * 与使用static final常量的写死布局相比会多出这几次读取。
+ *
+ * @since JDK 1.8
+ */
+public final class BitLayout {
+
+    /**
+     * 默认布局：2017-12-01开始，41位时间截，5位数据中心ID，5位工作机器ID，12位序列
+     */
+    public static final BitLayout DEFAULT = new BitLayout(1512057600000L, 41, 5, 5, 12);
+
+    private final long epoch;
+    private final long tickMillis;
+    private final int timestampBits;
+    private final int dataCenterIdBits;
+    private final int workerIdBits;
+    private final int sequenceBits;
+    private final int shardBits;
+
+    private final long maxTimestamp;
+    private final long maxDataCenterId;
+    private final long maxWorkerId;
+    private final long sequenceMask;
+    private final long maxShard;
+    private final int sequenceShift;
+    private final int workerIdShift;
+    private final int dataCenterIdShift;
+    private final int timestampShift;
+
+    /**
+     * 构造函数，tick为1ms
+     *
+     * @param epoch            开始时间截(毫秒)
+     * @param timestampBits    时间截所占的位数
+     * @param dataCenterIdBits 数据中心ID所占的位数
+     * @param workerIdBits     工作机器ID所占的位数
+     * @param sequenceBits     序列所占的位数
+     */
+    public BitLayout(long epoch, int timestampBits, int dataCenterIdBits, int workerIdBits, int sequenceBits) {
+        this(epoch, 1L, timestampBits, dataCenterIdBits, workerIdBits, sequenceBits);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param epoch            开始时间截(毫秒)，必须是tick的整数倍
+     * @param tickMillis       时间截的单位(毫秒)
+     * @param timestampBits    时间截所占的位数
+     * @param dataCenterIdBits 数据中心ID所占的位数
+     * @param workerIdBits     工作机器ID所占的位数
+     * @param sequenceBits     序列所占的位数
+     */
+    public BitLayout(long epoch, long tickMillis, int timestampBits, int dataCenterIdBits, int workerIdBits, int sequenceBits) {
+        this(epoch, tickMillis, timestampBits, dataCenterIdBits, workerIdBits, sequenceBits, 0);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param epoch            开始时间截(毫秒)，必须是tick的整数倍
+     * @param tickMillis       时间截的单位(毫秒)
+     * @param timestampBits    时间截所占的位数
+     * @param dataCenterIdBits 数据中心ID所占的位数
+     * @param workerIdBits     工作机器ID所占的位数
+     * @param sequenceBits     序列所占的位数
+     * @param shardBits        分片所占的位数，为0时不带分片
+     */
+    public BitLayout(long epoch, long tickMillis, int timestampBits, int dataCenterIdBits, int workerIdBits, int sequenceBits,
+                     int shardBits) {
+        if (epoch < 0) {
+            throw new IllegalArgumentException(String.format("epoch can't be less than 0, but is %d", epoch));
+        }
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException(String.format("tick millis can't be less than 1, but is %d", tickMillis));
+        }
+        if (epoch % tickMillis != 0) {
+            throw new IllegalArgumentException(String.format("epoch %d is not a multiple of tick millis %d", epoch, tickMillis));
+        }
+        if (timestampBits < 1 || sequenceBits < 1 || dataCenterIdBits < 0 || workerIdBits < 0 || shardBits < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "timestamp and sequence need at least 1 bit, other bits can't be less than 0, but layout is %d-%d-%d-%d-%d",
+                    timestampBits, dataCenterIdBits, workerIdBits, sequenceBits, shardBits));
+        }
+        if (timestampBits + dataCenterIdBits + workerIdBits + sequenceBits + shardBits > 63) {
+            throw new IllegalArgumentException(String.format("layout %d-%d-%d-%d-%d is more than 63 bits",
+                    timestampBits, dataCenterIdBits, workerIdBits, sequenceBits, shardBits));
+        }
+        this.epoch = epoch;
+        this.tickMillis = tickMillis;
+        this.timestampBits = timestampBits;
+        this.dataCenterIdBits = dataCenterIdBits;
+        this.workerIdBits = workerIdBits;
+        this.sequenceBits = sequenceBits;
+        this.shardBits = shardBits;
+
+        this.maxTimestamp = ~(-1L << timestampBits);
+        this.maxDataCenterId = ~(-1L << dataCenterIdBits);
+        this.maxWorkerId = ~(-1L << workerIdBits);
+        this.sequenceMask = ~(-1L << sequenceBits);
+        this.maxShard = ~(-1L << shardBits);
+        this.sequenceShift = shardBits;
+        this.workerIdShift = sequenceBits + sequenceShift;
+        this.dataCenterIdShift = workerIdBits + workerIdShift;
+        this.timestampShift = dataCenterIdBits + dataCenterIdShift;
+    }
+
+    /**
+     * 开始时间截(毫秒)
+     *
+     * @return the epoch
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * 时间截的单位(毫秒)
+     *
+     * @return the tick millis
+     */
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public int getTimestampBits() {
+        return timestampBits;
+    }
+
+    public int getDataCenterIdBits() {
+        return dataCenterIdBits;
+    }
+
+    public int getWorkerIdBits() {
+        return workerIdBits;
+    }
+
+    public int getSequenceBits() {
+        return sequenceBits;
+    }
+
+    /**
+     * 分片所占的位数
+     *
+     * @return the shard bits
+     */
+    public int getShardBits() {
+        return shardBits;
+    }
+
+    /**
+     * 时间截部分((当前时间截 - 开始时间截) / tick)能表示的最大值
+     *
+     * @return the max timestamp
+     */
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    public long getMaxDataCenterId() {
+        return maxDataCenterId;
+    }
+
+    public long getMaxWorkerId() {
+        return maxWorkerId;
+    }
+
+    public long getSequenceMask() {
+        return sequenceMask;
+    }
+
+    public long getMaxShard() {
+        return maxShard;
+    }
+
+    public int getSequenceShift() {
+        return sequenceShift;
+    }
+
+    public int getWorkerIdShift() {
+        return workerIdShift;
+    }
+
+    public int getDataCenterIdShift() {
+        return dataCenterIdShift;
+    }
+
+    public int getTimestampShift() {
+        return timestampShift;
+    }
+
+    /**
+     * baseId的上限(不含)，baseId由数据中心ID与工作机器ID拼接而成
+     *
+     * @return the max base id
+     */
+    public long getMaxBaseId() {
+        return 1L << (dataCenterIdBits + workerIdBits);
+    }
+
+    /**
+     * 将baseId拆成数据中心ID与工作机器ID
+     *
+     * @param baseId the base id
+     * @return the worker identity
+     */
+    public WorkerIdentity toIdentity(long baseId) {
+        return new WorkerIdentity(baseId & maxWorkerId, (baseId >> workerIdBits) & maxDataCenterId);
+    }
+
+    /**
+     * 取出id中的时间截(毫秒)
+     *
+     * @param id the id
+     * @return the timestamp
+     */
+    public long timestampOf(long id) {
+        return (id >>> timestampShift) * tickMillis + epoch;
+    }
+
+    /**
+     * 取出id中的时间截，精度为一个tick
+     *
+     * @param id the id
+     * @return the instant
+     */
+    public Instant instantOf(long id) {
+        return Instant.ofEpochMilli(timestampOf(id));
+    }
+
+    /**
+     * 取出id中的数据中心ID
+     *
+     * @param id the id
+     * @return the data center id
+     */
+    public long dataCenterIdOf(long id) {
+        return (id >>> dataCenterIdShift) & maxDataCenterId;
+    }
+
+    /**
+     * 取出id中的工作机器ID
+     *
+     * @param id the id
+     * @return the worker id
+     */
+    public long workerIdOf(long id) {
+        return (id >>> workerIdShift) & maxWorkerId;
+    }
+
+    /**
+     * 取出id中的序列
+     *
+     * @param id the id
+     * @return the sequence
+     */
+    public long sequenceOf(long id) {
+        return (id >>> sequenceShift) & sequenceMask;
+    }
+
+    /**
+     * 取出id中的分片
+     *
+     * @param id the id
+     * @return the shard
+     */
+    public int shardOf(long id) {
+        return (int) (id & maxShard);
+    }
+
+    /**
+     * 由分片键得到分片，取分片键的低位，与按2的幂取模的分片规则一致
+     *
+     * @param key the shard key
+     * @return the shard
+     */
+    public int shardOfKey(long key) {
+        return (int) (key & maxShard);
+    }
+
+    @Override
+    public String toString() {
+        return "BitLayout(epoch=" + epoch + ", tickMillis=" + tickMillis + ", timestampBits=" + timestampBits + ", dataCenterIdBits=" + dataCenterIdBits
+                + ", workerIdBits=" + workerIdBits + ", sequenceBits=" + sequenceBits + ", shardBits=" + shardBits + ")";
+    }
+}
@@ -0,0 +1,38 @@
+package com.sz.core.utils;
+
+/**
+ * The class Borrow future wait strategy.
+ * 借用未来时间的等待策略
+ * 序列溢出时在{@link #borrowMillis()}范围内直接借用未来的毫秒而不等待，超出范围后才按照回退策略等待
+ *
+ * @since JDK 1.8
+ */
+public final class BorrowFutureWaitStrategy implements WaitStrategy {
+
+    private final long borrowMillis;
+    private final WaitStrategy fallback;
+
+    /**
+     * 构造函数
+     *
+     * @param borrowMillis 允许借用的未来毫秒数
+     * @param fallback     超出借用范围后的等待策略
+     */
+    public BorrowFutureWaitStrategy(long borrowMillis, WaitStrategy fallback) {
+        if (borrowMillis < 0) {
+            throw new IllegalArgumentException(String.format("borrow millis can't be less than 0, but is %d", borrowMillis));
+        }
+        this.borrowMillis = borrowMillis;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public void idle(int attempts) {
+        fallback.idle(attempts);
+    }
+
+    @Override
+    public long borrowMillis() {
+        return borrowMillis;
+    }
+}
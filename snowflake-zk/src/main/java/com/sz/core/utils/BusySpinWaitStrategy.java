@@ -0,0 +1,30 @@
+package com.sz.core.utils;
+
+/**
+ * The class Busy spin wait strategy.
+ * 忙等策略，延迟最低但会占满一个CPU核
+ * 运行在JDK9及以上时通过{@code Thread.onSpinWait()}提示CPU当前处于自旋状态；
+ * 运行在JDK21及以上的虚拟线程中时改为{@link Thread#yield()}，让出载体线程而不是占着它空转
+ *
+ * @since JDK 1.8
+ */
+public final class BusySpinWaitStrategy implements WaitStrategy {
+
+    /**
+     * 单例
+     */
+    public static final BusySpinWaitStrategy INSTANCE = new BusySpinWaitStrategy();
+
+    private BusySpinWaitStrategy() {
+    }
+
+    @Override
+    public void idle(int attempts) {
+        if (ThreadHints.isVirtualThread()) {
+            // 虚拟线程忙等会占住载体线程，同一载体上的其他虚拟线程都无法运行
+            Thread.yield();
+        } else {
+            ThreadHints.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.sz.core.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The class Cached snowflake id worker.
+ * 带环形缓存的id生成器
+ * <p>
+ * 参考百度UidGenerator的CachedUidGenerator实现，由后台线程批量向环形缓存中预先填充id，
+ * 调用方只需通过一次CAS领取一个槽位即可拿到id。
+ * 缓存中的剩余id低于阈值时触发异步填充，也可以配置定时填充；缓存为空时直接向{@link SnowflakeIdWorker}申请，记为未命中。
+ * 填充使用的是被包装的{@link SnowflakeIdWorker}的序列空间，因此与直接调用该生成器得到的id不会重复。
+ * 被包装的生成器的身份被撤销(例如zk会话丢失)后需调用{@link #discard()}丢弃缓存中的id，撤销前申请而尚未发布的批次同样丢弃。
+ *
+ * @since JDK 1.8
+ */
+public class CachedSnowflakeIdWorker {
+
+    private static final Logger log = LoggerFactory.getLogger(CachedSnowflakeIdWorker.class);
+
+    /**
+     * 单次向生成器批量申请的最大id数量
+     */
+    private static final int PADDING_BATCH_SIZE = 4096;
+
+    private final SnowflakeIdWorker idWorker;
+    /**
+     * 环形缓存，长度为2的幂
+     */
+    private final long[] slots;
+    private final long indexMask;
+    /**
+     * 剩余id低于该值时触发填充
+     */
+    private final int paddingThreshold;
+    /**
+     * 最后一个已填充的位置，只由填充线程写入
+     */
+    private final PaddedAtomicLong tail = new PaddedAtomicLong(-1L);
+    /**
+     * 最后一个已被领取的位置
+     */
+    private final PaddedAtomicLong cursor = new PaddedAtomicLong(-1L);
+    /**
+     * 填充任务是否正在执行
+     */
+    private final AtomicBoolean padding = new AtomicBoolean(false);
+    /**
+     * 串行化发布与丢弃，使用ReentrantLock使等待的虚拟线程可以让出载体线程
+     */
+    private final ReentrantLock publishLock = new ReentrantLock();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final ExecutorService paddingExecutor;
+    private final ScheduledExecutorService paddingSchedule;
+    private final long[] paddingBatch = new long[PADDING_BATCH_SIZE];
+
+    /**
+     * 构造函数
+     *
+     * @param idWorker           被包装的id生成器
+     * @param bufferSize         环形缓存大小，必须为2的幂
+     * @param paddingFactor      剩余id低于缓存大小的百分之多少时触发填充(0~100)
+     * @param scheduleIntervalMs 定时填充的间隔，单位为ms，小于等于0时不开启定时填充
+     */
+    public CachedSnowflakeIdWorker(SnowflakeIdWorker idWorker, int bufferSize, int paddingFactor, long scheduleIntervalMs) {
+        if (bufferSize <= 0 || Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException(String.format("buffer size must be a positive power of 2, but is %d", bufferSize));
+        }
+        if (paddingFactor < 0 || paddingFactor > 100) {
+            throw new IllegalArgumentException(String.format("padding factor can't be greater than 100 or less than 0, but is %d", paddingFactor));
+        }
+        this.idWorker = idWorker;
+        this.slots = new long[bufferSize];
+        this.indexMask = bufferSize - 1;
+        this.paddingThreshold = bufferSize * paddingFactor / 100;
+        this.paddingExecutor = Executors.newSingleThreadExecutor(daemonThreadFactory("snowflake-id-padding"));
+        if (scheduleIntervalMs > 0) {
+            this.paddingSchedule = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("snowflake-id-padding-schedule"));
+            this.paddingSchedule.scheduleWithFixedDelay(this::paddingBuffer, scheduleIntervalMs, scheduleIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            this.paddingSchedule = null;
+        }
+        if (idWorker.getIdentity() == null) {
+            // 异步启动时身份尚未分配，在后台填充，不阻塞构建
+            asyncPadding();
+        } else {
+            // 启动时先同步填满缓存
+            paddingBuffer();
+        }
+    }
+
+    /**
+     * 获得下一个ID (该方法是线程安全的)
+     *
+     * @return SnowflakeId
+     */
+    public long nextId() {
+        for (; ; ) {
+            long current = cursor.get();
+            long published = tail.get();
+            if (current == published) {
+                // 缓存已空，直接向生成器申请
+                missCount.increment();
+                asyncPadding();
+                return idWorker.nextId();
+            }
+            long next = current + 1;
+            // 填充线程只有在cursor越过该槽位后才会覆盖它，因此CAS成功即说明读到的值有效
+            long id = slots[(int) (next & indexMask)];
+            if (cursor.compareAndSet(current, next)) {
+                hitCount.increment();
+                if (published - next < paddingThreshold) {
+                    asyncPadding();
+                }
+                return id;
+            }
+        }
+    }
+
+    /**
+     * 缓存命中次数
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * 缓存未命中次数
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * 缓存中剩余的id数量
+     *
+     * @return the remaining
+     */
+    public long getRemaining() {
+        return tail.get() - cursor.get();
+    }
+
+    /**
+     * 丢弃缓存中尚未领取的id (该方法是线程安全的)
+     * 在被包装的生成器的身份被撤销之后调用，之后的请求直接向生成器申请，直到按新的身份重新填充
+     */
+    public void discard() {
+        publishLock.lock();
+        try {
+            long published = tail.get();
+            long current;
+            while ((current = cursor.get()) < published) {
+                if (cursor.compareAndSet(current, published)) {
+                    log.info("discard {} cached snowflake ids", published - current);
+                    break;
+                }
+            }
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    /**
+     * 停止后台填充线程
+     */
+    public void shutdown() {
+        paddingExecutor.shutdownNow();
+        if (paddingSchedule != null) {
+            paddingSchedule.shutdownNow();
+        }
+    }
+
+    /**
+     * 提交一次填充，已有填充任务在排队或执行时不再提交，队列中最多只有一个任务
+     */
+    private void asyncPadding() {
+        if (padding.compareAndSet(false, true)) {
+            try {
+                paddingExecutor.execute(this::fillBuffer);
+            } catch (Exception e) {
+                padding.set(false);
+                log.warn("submit padding task fail, because {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 将缓存填满，已有填充任务时直接返回
+     */
+    private void paddingBuffer() {
+        if (padding.compareAndSet(false, true)) {
+            fillBuffer();
+        }
+    }
+
+    /**
+     * 将缓存填满，调用方需已将{@link #padding}置为true，同一时刻只有一个线程在填充
+     */
+    private void fillBuffer() {
+        try {
+            long free;
+            while ((free = slots.length - (tail.get() - cursor.get())) > 0) {
+                int count = (int) Math.min(free, PADDING_BATCH_SIZE);
+                long revocations = idWorker.revocations();
+                idWorker.fill(paddingBatch, 0, count);
+                publishLock.lock();
+                try {
+                    // 申请期间身份被撤销，这一批id可能属于已失效的身份，丢弃后按新的身份重新申请
+                    if (idWorker.revocations() != revocations) {
+                        continue;
+                    }
+                    long published = tail.get();
+                    for (int i = 0; i < count; i++) {
+                        slots[(int) ((published + 1 + i) & indexMask)] = paddingBatch[i];
+                    }
+                    // 写完槽位后再发布tail，领取方读到新的tail即可看到槽位中的值
+                    tail.set(published + count);
+                } finally {
+                    publishLock.unlock();
+                }
+            }
+        } catch (Exception e) {
+            log.error("padding snowflake id buffer fail, because ", e);
+        } finally {
+            padding.set(false);
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
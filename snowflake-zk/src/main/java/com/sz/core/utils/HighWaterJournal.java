@@ -0,0 +1,149 @@
+package com.sz.core.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * The class High water journal.
+ * 记录id生成器已使用过的最大时间截(高水位)的内存映射文件，用于防止重启期间时钟回退导致重复发号
+ * <p>
+ * 高水位先于使用写入：生成的时间截超过高水位时，先把高水位推进到该时间截之后一个窗口并刷到磁盘，再发放ID，
+ * 因此每个窗口只写一次文件，热路径上平时只有一次比较。重启时从文件读出高水位，id生成器只使用高水位之后的时间截，
+ * 时钟落后于高水位时按时钟回退处理，即借用、等待或者切换到备用身份。
+ * 文件中有两个槽位交替写入，各自带有CRC32，写入中途掉电时仍能读出上一次的高水位。
+ *
+ * @since JDK 1.8
+ */
+public class HighWaterJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(HighWaterJournal.class);
+
+    /**
+     * 每个槽位依次为写入序号、高水位、前两项的CRC32
+     */
+    private static final int SLOT_SIZE = 24;
+    private static final int SLOT_COUNT = 2;
+
+    private final Path file;
+    private final long windowMillis;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    /**
+     * 串行化写入，由发号线程在热路径上获取，使用ReentrantLock使等待的虚拟线程可以让出载体线程
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * 已写入的次数，决定下一次写入的槽位
+     */
+    private long version;
+    /**
+     * 当前的高水位(毫秒)
+     */
+    private volatile long mark;
+
+    /**
+     * 构造函数，打开或者创建文件并读出高水位
+     *
+     * @param file         文件路径
+     * @param windowMillis 每次推进高水位时超出所需时间截的毫秒数，越大写入越少，重启时可能需要越过的时间也越长
+     * @throws IOException the io exception
+     */
+    public HighWaterJournal(String file, long windowMillis) throws IOException {
+        if (windowMillis < 1) {
+            throw new IllegalArgumentException(String.format("window millis can't be less than 1, but is %d", windowMillis));
+        }
+        this.file = Paths.get(file);
+        this.windowMillis = windowMillis;
+        Path parent = this.file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SLOT_SIZE * SLOT_COUNT);
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            int offset = slot * SLOT_SIZE;
+            long slotVersion = buffer.getLong(offset);
+            long slotMark = buffer.getLong(offset + 8);
+            if (buffer.getLong(offset + 16) == checksum(slotVersion, slotMark) && slotVersion >= version) {
+                version = slotVersion + 1;
+                mark = slotMark;
+            }
+        }
+        log.info("open high water journal {}, mark is {}", this.file, mark);
+    }
+
+    /**
+     * 当前的高水位(毫秒)，之前发放的ID的时间截都不超过该值
+     *
+     * @return the mark
+     */
+    public long getMark() {
+        return mark;
+    }
+
+    /**
+     * 每次推进高水位时超出所需时间截的毫秒数
+     *
+     * @return the window millis
+     */
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * 确保高水位不小于给定的时间截，不足时推进到该时间截之后一个窗口并刷到磁盘
+     *
+     * @param timestampMillis 即将使用的时间截(毫秒)
+     * @return 推进后的高水位
+     */
+    public long advance(long timestampMillis) {
+        lock.lock();
+        try {
+            if (timestampMillis <= mark) {
+                return mark;
+            }
+            long next = timestampMillis + windowMillis;
+            int offset = (int) (version % SLOT_COUNT) * SLOT_SIZE;
+            buffer.putLong(offset, version);
+            buffer.putLong(offset + 8, next);
+            buffer.putLong(offset + 16, checksum(version, next));
+            buffer.force();
+            version++;
+            mark = next;
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("close high water journal {} fail, because {}", file, e.getMessage());
+        }
+    }
+
+    private static long checksum(long version, long mark) {
+        CRC32 crc = new CRC32();
+        for (int i = 56; i >= 0; i -= 8) {
+            crc.update((int) (version >>> i));
+        }
+        for (int i = 56; i >= 0; i -= 8) {
+            crc.update((int) (mark >>> i));
+        }
+        return crc.getValue();
+    }
+}
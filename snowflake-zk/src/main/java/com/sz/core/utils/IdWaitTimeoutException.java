@@ -0,0 +1,22 @@
+package com.sz.core.utils;
+
+/**
+ * The class Id wait timeout exception.
+ * 在截止时间前未能生成id时抛出的异常
+ * 使用预先创建且不填充堆栈的单例，抛出时没有额外开销
+ *
+ * @since JDK 1.8
+ */
+public final class IdWaitTimeoutException extends RuntimeException {
+
+    /**
+     * 单例
+     */
+    public static final IdWaitTimeoutException INSTANCE = new IdWaitTimeoutException();
+
+    private static final long serialVersionUID = 2853493312095785721L;
+
+    private IdWaitTimeoutException() {
+        super("wait for snowflake id timeout", null, false, false);
+    }
+}
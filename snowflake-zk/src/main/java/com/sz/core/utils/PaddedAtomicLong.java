@@ -0,0 +1,36 @@
+package com.sz.core.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class Padded atomic long.
+ * 填充了缓存行的AtomicLong，避免与相邻字段产生伪共享
+ *
+ * @since JDK 1.8
+ */
+public class PaddedAtomicLong extends AtomicLong {
+
+    private static final long serialVersionUID = -3415778863941386253L;
+
+    /**
+     * 填充字段，使value独占一个64字节的缓存行
+     */
+    public volatile long p1, p2, p3, p4, p5, p6 = 7L;
+
+    public PaddedAtomicLong() {
+        super();
+    }
+
+    public PaddedAtomicLong(long initialValue) {
+        super(initialValue);
+    }
+
+    /**
+     * 防止填充字段被JIT优化掉
+     *
+     * @return the long
+     */
+    public long sumPaddingToPreventOptimisation() {
+        return p1 + p2 + p3 + p4 + p5 + p6;
+    }
+}
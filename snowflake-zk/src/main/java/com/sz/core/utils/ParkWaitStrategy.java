@@ -0,0 +1,31 @@
+package com.sz.core.utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The class Park wait strategy.
+ * 挂起线程的等待策略，几乎不占用CPU，但唤醒延迟取决于系统的定时器精度
+ *
+ * @since JDK 1.8
+ */
+public final class ParkWaitStrategy implements WaitStrategy {
+
+    private final long parkNanos;
+
+    /**
+     * 构造函数
+     *
+     * @param parkNanos 每次挂起的时长，单位为ns
+     */
+    public ParkWaitStrategy(long parkNanos) {
+        if (parkNanos <= 0) {
+            throw new IllegalArgumentException(String.format("park nanos must be greater than 0, but is %d", parkNanos));
+        }
+        this.parkNanos = parkNanos;
+    }
+
+    @Override
+    public void idle(int attempts) {
+        LockSupport.parkNanos(this, parkNanos);
+    }
+}
@@ -0,0 +1,56 @@
+package com.sz.core.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The enum Sequence strategy.
+ * 进入新的tick时序列的起始值
+ * <p>
+ * 每个tick都从0开始时，低并发下id的低位几乎总是0，按id对2的幂取模分表会集中到同一张表上。
+ * 后两种策略让低位在各个取值间均匀分布，同一tick内序列仍然从起始值递增，因此唯一性与单调递增不受影响；
+ * 代价是起始值之前的序列在该tick内不再可用，突发量超出剩余序列时会提前借用下一个tick。
+ *
+ * @since JDK 1.8
+ */
+public enum SequenceStrategy {
+
+    /**
+     * 每个tick都从0开始
+     */
+    RESET {
+        @Override
+        long start(long lastSequence, long sequenceMask) {
+            return 0L;
+        }
+    },
+
+    /**
+     * 接着上一次的序列继续计数，序列用尽后回到0
+     */
+    CARRY {
+        @Override
+        long start(long lastSequence, long sequenceMask) {
+            return (lastSequence + 1) & sequenceMask;
+        }
+    },
+
+    /**
+     * 从序列空间前一半中的随机位置开始，保证每个tick至少还有一半的序列可用
+     */
+    RANDOM {
+        @Override
+        long start(long lastSequence, long sequenceMask) {
+            long bound = (sequenceMask + 1) >>> 1;
+            return bound <= 1 ? 0L : ThreadLocalRandom.current().nextLong(bound);
+        }
+    };
+
+    /**
+     * 计算新的tick中序列的起始值
+     *
+     * @param lastSequence 上一次分配的序列
+     * @param sequenceMask 序列的掩码
+     * @return 起始值
+     */
+    abstract long start(long lastSequence, long sequenceMask);
+}
@@ -3,6 +3,15 @@ package com.sz.core.utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * The class Snowflake id worker.
  * 推特的snowflake算法实现类
@@ -24,6 +33,8 @@ import org.slf4j.LoggerFactory;
  */
 public class SnowflakeIdWorker {
 
+    // 以下常量为默认布局{@link BitLayout#DEFAULT}的取值，实际使用的布局由{@link Builder#layout(BitLayout)}指定
+
     /**
      * 开始时间截 (2017-12-01)
      */
@@ -68,45 +79,205 @@ public class SnowflakeIdWorker {
     public static final long SEQUENCE_MASK = ~(-1L << SEQUENCE_BITS);
     private static final Logger log = LoggerFactory.getLogger(SnowflakeIdWorker.class);
     /**
-     * 工作机器ID(0~31)
+     * 等待时钟追回时每次挂起的时长，单位为ns
+     */
+    private static final long ROLLBACK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    /**
+     * {@link #tryNextId(long, TimeUnit)}超时时返回的值，正常生成的ID不会是负数
      */
-    private long workerId;
+    public static final long TIMEOUT_ID = -1L;
     /**
-     * 数据中心ID(0~31)
+     * 表示没有截止时间
      */
-    private long dataCenterId;
+    private static final long NO_DEADLINE = Long.MIN_VALUE;
     /**
-     * 毫秒内序列(0~4095)
+     * 等待时间达到该值时视为不限时，保证截止时间与当前时间之差不会溢出
+     */
+    private static final long MAX_TIMEOUT_NANOS = Long.MAX_VALUE >> 1;
+    /**
+     * tick内序列(0~4095)
      */
     private long sequence = 0L;
     /**
-     * 上次生成ID的时间截
+     * 上次生成ID的时间截(tick)
      */
     private long lastTimestamp = -1L;
+    /**
+     * 是否使用无锁模式
+     */
+    private final boolean lockFree;
+    /**
+     * 加锁模式下保护sequence与lastTimestamp的锁，无锁模式下只在切换身份时使用
+     * 使用ReentrantLock而不是synchronized，等待锁的虚拟线程可以让出载体线程
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * 身份分配完成或者分配失败时唤醒等待的线程
+     */
+    private final Condition identityReady = lock.newCondition();
+    /**
+     * 当前身份的高水位推进后唤醒等待的线程
+     */
+    private final Condition markExtended = lock.newCondition();
+    /**
+     * 当前使用的身份及其无锁模式下的状态字，切换身份时整体替换，异步启动时在分配完成前以及身份被撤销后为null
+     */
+    private volatile Generation generation;
+    /**
+     * 异步启动时分配身份失败的原因
+     */
+    private volatile Throwable identityFailure;
+    /**
+     * 身份尚未分配或者已被撤销时，生成ID等待新身份的最长时间(毫秒)
+     */
+    private final long identityTimeoutMillis;
+
+    /**
+     * id的位布局，热路径上用到的部分复制到下面的字段中，省去对布局对象的间接访问；
+     * 这些是实例字段，JIT不会将其作为常量折叠，每次仍需读取
+     * 内部的时间截均以tick为单位，开始时间截也换算成tick
+     * 内部的状态字与预留得到的ID都不含分片位，对外发放时再左移{@link #shardBits}位并拼上分片
+     */
+    private final BitLayout layout;
+    private final long tickMillis;
+    private final long epochTick;
+    private final long maxTimestamp;
+    private final long sequenceMask;
+    private final int timestampShift;
+    private final int shardBits;
+    private final long maxShard;
+
+    /**
+     * 时钟
+     */
+    private final TimeSource timeSource;
+    /**
+     * 序列溢出时最多借用的未来tick数，为0时阻塞到时钟进入下一个tick
+     */
+    private final long maxLeadTicks;
+    /**
+     * 时钟回退不超过该tick数时沿用上次的逻辑时间戳，与{@link #maxLeadTicks}相互独立：
+     * 沿用期间序列溢出时仍按{@link #maxLeadTicks}等待，不会因为容忍回退而额外借用未来的tick
+     */
+    private final long toleranceTicks;
+    /**
+     * 时钟回退超过{@link #toleranceTicks}但不超过该值(tick)时，挂起等待时钟追回
+     */
+    private final long rollbackMaxWaitTicks;
+    /**
+     * 等待时钟追回的最长时间(毫秒)
+     */
+    private final long rollbackMaxWaitMillis;
+    /**
+     * 时钟回退过大时提供备用身份，为null时直接抛出异常
+     */
+    private final SpareWorkerIdProvider spareWorkerIdProvider;
+    /**
+     * 等待时钟前进时的策略
+     */
+    private final WaitStrategy waitStrategy;
+    /**
+     * 进入新的tick时序列的起始值
+     */
+    private final SequenceStrategy sequenceStrategy;
+    /**
+     * 高水位日志，为null时不记录
+     */
+    private final HighWaterJournal journal;
+    /**
+     * 已写入日志的高水位(tick)，生成的时间截超过该值时先推进高水位，不记录时为Long.MAX_VALUE
+     */
+    private volatile long journalTick;
+    /**
+     * 启动时从日志读出的高水位(tick)，每个身份都只使用其后的时间截，没有时为-1
+     */
+    private final long journalFloorTick;
+    /**
+     * 高水位每次推进时领先的tick数
+     */
+    private final long journalWindowTicks;
+    /**
+     * 身份之前的持有者留下的高水位领先于时钟时，最多额外等待的tick数
+     */
+    private final long floorMaxWaitTicks;
+    /**
+     * 当前身份只能使用该值之后的时间截(tick)，取启动时的高水位与身份之前的持有者留下的高水位中的较大者，没有时为-1
+     */
+    private volatile long floorTick = -1L;
+    /**
+     * 时钟落后于{@link #floorTick}时，在{@link #rollbackMaxWaitTicks}之外可以额外等待的tick数
+     */
+    private volatile long floorWaitTicks;
+    /**
+     * 本实例用过的每个身份在被替换(切换、撤销或者时钟回退换用备用身份)时生成过的最大时间截(tick)，
+     * 之后重新启用该身份时只使用其后的时间截；只在持有{@link #lock}时访问
+     */
+    private final Map<WorkerIdentity, Long> retiredTicks = new HashMap<>();
+    /**
+     * 身份被撤销的次数，只在持有{@link #lock}时写入；包装类据此丢弃撤销前预留而尚未发放的ID
+     */
+    private volatile long revocations;
 
     /**
      * 构造函数
      *
-     * @param workerId     工作ID (0~31)
-     * @param dataCenterId 数据中心ID (0~31)
+     * @param builder 构建参数
      */
-    private SnowflakeIdWorker(long workerId, long dataCenterId) {
-        if (workerId > MAX_WORKER_ID || workerId < 0) {
-            throw new IllegalArgumentException(String.format("worker Id can't be greater than %d or less than 0", MAX_WORKER_ID));
+    private SnowflakeIdWorker(Builder builder) {
+        if (builder.maxLeadMillis < 0) {
+            throw new IllegalArgumentException(String.format("max lead millis can't be less than 0, but is %d", builder.maxLeadMillis));
         }
-        if (dataCenterId > MAX_DATA_CENTER_ID || dataCenterId < 0) {
-            throw new IllegalArgumentException(String.format("data center Id can't be greater than %d or less than 0", MAX_DATA_CENTER_ID));
+        if (builder.rollbackToleranceMillis < 0) {
+            throw new IllegalArgumentException(String.format("rollback tolerance millis can't be less than 0, but is %d", builder.rollbackToleranceMillis));
         }
-        this.workerId = workerId;
-        this.dataCenterId = dataCenterId;
+        this.layout = builder.layout != null ? builder.layout : BitLayout.DEFAULT;
+        this.tickMillis = layout.getTickMillis();
+        this.epochTick = layout.getEpoch() / tickMillis;
+        this.maxTimestamp = layout.getMaxTimestamp();
+        this.sequenceMask = layout.getSequenceMask();
+        this.shardBits = layout.getShardBits();
+        this.maxShard = layout.getMaxShard();
+        this.timestampShift = layout.getTimestampShift() - shardBits;
+        this.identityTimeoutMillis = builder.identityTimeoutMillis;
+        this.lockFree = builder.lockFree;
+        this.timeSource = builder.timeSource != null ? builder.timeSource : TickerTimeSource.getDefault();
+        this.waitStrategy = builder.waitStrategy != null ? builder.waitStrategy : BusySpinWaitStrategy.INSTANCE;
+        //毫秒换算成tick，领先量向下取整，等待量向上取整
+        this.maxLeadTicks = Math.max(builder.maxLeadMillis, waitStrategy.borrowMillis()) / tickMillis;
+        this.toleranceTicks = builder.rollbackToleranceMillis / tickMillis;
+        this.rollbackMaxWaitMillis = builder.rollbackMaxWaitMillis;
+        this.rollbackMaxWaitTicks = (builder.rollbackMaxWaitMillis + tickMillis - 1) / tickMillis;
+        this.spareWorkerIdProvider = builder.spareWorkerIdProvider;
+        this.sequenceStrategy = builder.sequenceStrategy != null ? builder.sequenceStrategy : SequenceStrategy.RESET;
+        this.journal = builder.journal;
+        long floor = journal == null ? -1L : journal.getMark() / tickMillis;
+        this.journalFloorTick = floor > epochTick ? floor : -1L;
+        this.journalTick = journal == null ? Long.MAX_VALUE : floor;
+        this.journalWindowTicks = journal == null ? 0L : (journal.getWindowMillis() + tickMillis - 1) / tickMillis;
+        this.floorMaxWaitTicks = (builder.floorMaxWaitMillis + tickMillis - 1) / tickMillis;
+        install(builder.pendingIdentity ? null
+                        : new Generation(new WorkerIdentity(builder.workerId, builder.dataCenterId), layout, builder.markMillis / tickMillis),
+                builder.floorMillis);
+    }
+
+    public static Builder builder() {
+        return new Builder();
     }
 
     public static void init(long workerId, long dataCenterId) {
-        SnowflakeIdWorkerHolder.init(workerId, dataCenterId);
+        init(builder().workerId(workerId).dataCenterId(dataCenterId));
+    }
+
+    public static void init(Builder builder) {
+        SnowflakeIdWorkerHolder.init(builder);
     }
 
     public static void reInit(long workerId, long dataCenterId) {
-        SnowflakeIdWorkerHolder.reInit(workerId, dataCenterId);
+        reInit(builder().workerId(workerId).dataCenterId(dataCenterId));
+    }
+
+    public static void reInit(Builder builder) {
+        SnowflakeIdWorkerHolder.reInit(builder);
     }
 
     public static SnowflakeIdWorker getInstance() {
@@ -123,81 +294,1173 @@ public class SnowflakeIdWorker {
      *
      * @return SnowflakeId
      */
-    public synchronized long nextId() {
+    public long nextId() {
+        return reserve(1, NO_DEADLINE) << shardBits;
+    }
+
+    /**
+     * 获得带有指定分片的下一个ID (该方法是线程安全的)
+     * 分片写在ID的最低位，可以通过{@link #shardOf(long)}直接取出
+     *
+     * @param shard 分片，不能超过{@link BitLayout#getMaxShard()}
+     * @return SnowflakeId
+     */
+    public long nextId(int shard) {
+        if (shard > maxShard || shard < 0) {
+            throw new IllegalArgumentException(String.format("shard can't be greater than %d or less than 0, but is %d", maxShard, shard));
+        }
+        return (reserve(1, NO_DEADLINE) << shardBits) | shard;
+    }
+
+    /**
+     * 获得与分片键落在同一分片的下一个ID (该方法是线程安全的)
+     * 分片取分片键的低{@link BitLayout#getShardBits()}位
+     *
+     * @param shardKey 分片键，例如用户ID
+     * @return SnowflakeId
+     */
+    public long nextIdByKey(long shardKey) {
+        return (reserve(1, NO_DEADLINE) << shardBits) | (shardKey & maxShard);
+    }
+
+    /**
+     * 取出ID中的分片
+     *
+     * @param id SnowflakeId
+     * @return 分片
+     */
+    public int shardOf(long id) {
+        return (int) (id & maxShard);
+    }
+
+    /**
+     * 在限定时间内获得下一个ID (该方法是线程安全的)
+     * 等待锁、等待时钟前进以及等待时钟回退追回的时间都计入限时，申请备用身份的时间不计入
+     *
+     * @param timeout 最长等待时间
+     * @param unit    时间单位
+     * @return SnowflakeId，超时返回{@link #TIMEOUT_ID}
+     */
+    public long tryNextId(long timeout, TimeUnit unit) {
+        try {
+            return reserve(1, deadlineOf(unit.toNanos(timeout))) << shardBits;
+        } catch (IdWaitTimeoutException e) {
+            return TIMEOUT_ID;
+        }
+    }
+
+    /**
+     * 由等待时间得到截止时间，与ReentrantLock.tryLock一样按饱和处理：
+     * 超出{@link System#nanoTime()}差值能够比较的范围时视为不限时，不会因为相加溢出而立即超时
+     *
+     * @param timeoutNanos 最长等待时间(纳秒)
+     * @return 截止时间，不限时为{@link #NO_DEADLINE}
+     */
+    private static long deadlineOf(long timeoutNanos) {
+        if (timeoutNanos >= MAX_TIMEOUT_NANOS) {
+            return NO_DEADLINE;
+        }
+        long deadline = System.nanoTime() + Math.max(0L, timeoutNanos);
+        // 避开表示不限时的值
+        return deadline == NO_DEADLINE ? deadline + 1 : deadline;
+    }
+
+    /**
+     * 切换到新的身份 (该方法是线程安全的)
+     * 之后生成的ID使用新的数据中心ID与工作机器ID，并从当前时间重新开始计数；
+     * 用于原身份可能已被其他进程占用的场景，例如zk会话丢失后重新分配
+     *
+     * @param identity 新的身份
+     */
+    public void switchIdentity(WorkerIdentity identity) {
+        switchIdentity(identity, 0L);
+    }
+
+    /**
+     * 切换到之前被其他进程使用过的身份 (该方法是线程安全的)
+     * 只使用之前的持有者留下的高水位之后的时间截，时钟落后时借用或者等待，最多额外等待构建时指定的时间
+     *
+     * @param identity    新的身份
+     * @param floorMillis 之前的持有者使用过的最大时间截(毫秒)，没有时为0
+     */
+    public void switchIdentity(WorkerIdentity identity, long floorMillis) {
+        switchIdentity(identity, floorMillis, Long.MAX_VALUE);
+    }
+
+    /**
+     * 切换到之前被其他进程使用过的身份，并且只生成不超过外部记录的高水位的ID (该方法是线程安全的)
+     * 生成的时间截将要超过高水位时，生成ID的线程等待{@link #extendMark(WorkerIdentity, long)}推进高水位，
+     * 最多等待构建时指定的等待身份的时间
+     *
+     * @param identity    新的身份
+     * @param floorMillis 之前的持有者使用过的最大时间截(毫秒)，没有时为0
+     * @param markMillis  已经记录在外部的高水位(毫秒)，Long.MAX_VALUE表示不限制
+     */
+    public void switchIdentity(WorkerIdentity identity, long floorMillis, long markMillis) {
+        Generation next = new Generation(identity, layout, markMillis / tickMillis);
+        lock.lock();
+        try {
+            install(next, floorMillis);
+            identityFailure = null;
+            identityReady.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 撤销当前身份 (该方法是线程安全的)
+     * 之后生成ID的线程等待{@link #switchIdentity(WorkerIdentity)}给出新的身份，最多等待构建时指定的时间；
+     * 用于无法确认身份仍然有效的场景，例如沿用本地租约重启后到期前仍未与zk确认、zk会话丢失；
+     * 之后重新启用同一身份时，只使用撤销前生成过的最大时间截之后的时间截
+     */
+    public void revokeIdentity() {
+        lock.lock();
+        try {
+            install(null, 0L);
+            revocations++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 异步启动时身份分配失败，唤醒等待身份的线程并抛出异常 (该方法是线程安全的)
+     * 之后仍可以通过{@link #switchIdentity(WorkerIdentity)}给出身份
+     *
+     * @param cause 失败的原因
+     */
+    public void failIdentity(Throwable cause) {
+        lock.lock();
+        try {
+            identityFailure = cause;
+            identityReady.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 外部记录的高水位已推进，当前身份可以生成不超过该值的ID (该方法是线程安全的)
+     * 高水位只增不减，身份已被切换或撤销时忽略
+     *
+     * @param identity   写入高水位时的身份
+     * @param markMillis 已经记录在外部的高水位(毫秒)
+     */
+    public void extendMark(WorkerIdentity identity, long markMillis) {
+        long markTick = markMillis / tickMillis;
+        lock.lock();
+        try {
+            Generation generation = this.generation;
+            if (generation != null && generation.identity.equals(identity) && markTick > generation.markTick) {
+                generation.markTick = markTick;
+                markExtended.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前身份可以使用的最大时间截(毫秒)，没有身份或者不限制时为Long.MAX_VALUE
+     *
+     * @return the mark millis
+     */
+    public long getMarkMillis() {
+        Generation generation = this.generation;
+        if (generation == null || generation.markTick == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return generation.markTick * tickMillis;
+    }
+
+    /**
+     * 身份被撤销的次数
+     *
+     * @return the revocations
+     */
+    long revocations() {
+        return revocations;
+    }
+
+    /**
+     * id的位布局
+     *
+     * @return the layout
+     */
+    public BitLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * 当前使用的身份，异步启动时在分配完成前以及身份被撤销后为null
+     *
+     * @return the worker identity
+     */
+    public WorkerIdentity getIdentity() {
+        Generation generation = this.generation;
+        return generation == null ? null : generation.identity;
+    }
+
+    /**
+     * 逻辑时间领先系统时钟的最大毫秒数，取序列溢出时借用的上限与容忍时钟回退的上限中的较大值
+     *
+     * @return the max lead millis
+     */
+    public long getMaxLeadMillis() {
+        return Math.max(maxLeadTicks, toleranceTicks) * tickMillis;
+    }
+
+    /**
+     * 当前逻辑时间领先系统时钟的毫秒数
+     *
+     * @return the lead millis
+     */
+    public long getLeadMillis() {
+        Generation generation = this.generation;
+        if (generation == null) {
+            return 0L;
+        }
+        long last;
+        if (lockFree) {
+            last = timestampOf(generation.state.get());
+        } else {
+            lock.lock();
+            try {
+                last = lastTimestamp;
+            } finally {
+                lock.unlock();
+            }
+        }
+        return Math.max(0L, last - timeGen()) * tickMillis;
+    }
+
+    /**
+     * 批量获得ID (该方法是线程安全的)
+     *
+     * @param n 需要的ID数量
+     * @return SnowflakeId数组
+     */
+    public long[] nextIds(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException(String.format("id count can't be less than 0, but is %d", n));
+        }
+        long[] ids = new long[n];
+        fill(ids, 0, n);
+        return ids;
+    }
+
+    /**
+     * 将ID批量写入数组 (该方法是线程安全的)
+     *
+     * @param ids 目标数组
+     */
+    public void fill(long[] ids) {
+        fill(ids, 0, ids.length);
+    }
+
+    /**
+     * 将ID批量写入数组的指定区间 (该方法是线程安全的)
+     * 加锁模式下整批ID在同一个临界区内分配，可以跨越多个tick；
+     * 无锁模式下每个tick内的ID通过一次CAS整段预留
+     *
+     * @param ids    目标数组
+     * @param offset 起始下标
+     * @param length 写入数量
+     */
+    public void fill(long[] ids, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > ids.length - length) {
+            throw new IndexOutOfBoundsException(
+                    String.format("offset %d and length %d out of bounds for length %d", offset, length, ids.length));
+        }
+        if (lockFree) {
+            fillArray(ids, offset, length);
+        } else {
+            lock.lock();
+            try {
+                fillArray(ids, offset, length);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 将ID写满buffer的剩余空间 (该方法是线程安全的)
+     *
+     * @param buffer 目标buffer
+     */
+    public void fill(LongBuffer buffer) {
+        if (lockFree) {
+            fillLongBuffer(buffer);
+        } else {
+            lock.lock();
+            try {
+                fillLongBuffer(buffer);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 将ID按8字节一个写满buffer的剩余空间，字节序由buffer决定 (该方法是线程安全的)
+     *
+     * @param buffer 目标buffer，可以是堆外buffer
+     */
+    public void fill(ByteBuffer buffer) {
+        if (lockFree) {
+            fillByteBuffer(buffer);
+        } else {
+            lock.lock();
+            try {
+                fillByteBuffer(buffer);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void fillArray(long[] ids, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int remaining = end - offset;
+            long first = reserve(remaining);
+            int count = runLength(first, remaining);
+            for (int i = 0; i < count; i++) {
+                ids[offset++] = (first + i) << shardBits;
+            }
+        }
+    }
+
+    private void fillLongBuffer(LongBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            int remaining = buffer.remaining();
+            long first = reserve(remaining);
+            int count = runLength(first, remaining);
+            for (int i = 0; i < count; i++) {
+                buffer.put((first + i) << shardBits);
+            }
+        }
+    }
+
+    private void fillByteBuffer(ByteBuffer buffer) {
+        while (buffer.remaining() >= Long.BYTES) {
+            int remaining = buffer.remaining() / Long.BYTES;
+            long first = reserve(remaining);
+            int count = runLength(first, remaining);
+            for (int i = 0; i < count; i++) {
+                buffer.putLong((first + i) << shardBits);
+            }
+        }
+    }
+
+    /**
+     * 预留一段同一tick内连续的序列
+     * 返回值为不含分片位的首个ID，预留的数量可由{@link #runLength(long, int)}算出
+     *
+     * @param max 最多预留的数量，必须大于0
+     * @return 首个ID
+     */
+    long reserve(int max) {
+        return reserve(max, NO_DEADLINE);
+    }
+
+    /**
+     * 在截止时间前预留一段同一tick内连续的序列
+     *
+     * @param max           最多预留的数量，必须大于0
+     * @param deadlineNanos 以{@link System#nanoTime()}计的截止时间，{@link #NO_DEADLINE}表示不限时
+     * @return 首个ID
+     * @throws IdWaitTimeoutException 超过截止时间
+     */
+    private long reserve(int max, long deadlineNanos) {
+        if (lockFree) {
+            return reserveLockFree(max, deadlineNanos);
+        }
+        return reserveLocked(max, deadlineNanos);
+    }
+
+    /**
+     * 等待身份分配完成，持有锁时可重入
+     * 最多等待{@link #identityTimeoutMillis}毫秒，同时不超过调用方的截止时间
+     *
+     * @param deadlineNanos 截止时间
+     * @throws IdWaitTimeoutException 超过调用方的截止时间
+     * @throws IllegalStateException  身份分配失败或者等待超时
+     */
+    private void awaitIdentity(long deadlineNanos) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(identityTimeoutMillis);
+        boolean limited = deadlineNanos != NO_DEADLINE && deadlineNanos - deadline < 0;
+        if (limited) {
+            deadline = deadlineNanos;
+        }
+        lock.lock();
+        try {
+            while (generation == null) {
+                Throwable failure = identityFailure;
+                if (failure != null) {
+                    throw new IllegalStateException("acquire worker identity fail", failure);
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    if (limited) {
+                        throw IdWaitTimeoutException.INSTANCE;
+                    }
+                    throw new IllegalStateException(String.format("worker identity is not ready after %d milliseconds", identityTimeoutMillis));
+                }
+                identityReady.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw limited ? IdWaitTimeoutException.INSTANCE : new IllegalStateException("interrupted while waiting for worker identity", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待外部记录的高水位越过即将使用的时间截，持有锁时可重入
+     * 身份在等待期间被切换或撤销时直接返回，由调用方重新预留；最多等待{@link #identityTimeoutMillis}毫秒，同时不超过调用方的截止时间
+     *
+     * @param observed      预留时使用的身份
+     * @param timestamp     即将使用的时间截(tick)
+     * @param deadlineNanos 截止时间
+     * @throws IdWaitTimeoutException 超过调用方的截止时间
+     * @throws IllegalStateException  等待超时
+     */
+    private void awaitMark(Generation observed, long timestamp, long deadlineNanos) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(identityTimeoutMillis);
+        boolean limited = deadlineNanos != NO_DEADLINE && deadlineNanos - deadline < 0;
+        if (limited) {
+            deadline = deadlineNanos;
+        }
+        lock.lock();
+        try {
+            while (generation == observed && timestamp > observed.markTick) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    if (limited) {
+                        throw IdWaitTimeoutException.INSTANCE;
+                    }
+                    throw new IllegalStateException(String.format("high water mark of %s is not extended beyond %d after %d milliseconds",
+                            observed.identity, timestamp * tickMillis, identityTimeoutMillis));
+                }
+                markExtended.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw limited ? IdWaitTimeoutException.INSTANCE : new IllegalStateException("interrupted while waiting for high water mark", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出ID或状态字中的时间截
+     *
+     * @param word ID或状态字
+     * @return 时间截(tick)
+     */
+    long timestampOf(long word) {
+        return (word >>> timestampShift) + epochTick;
+    }
+
+    /**
+     * 将时间截移位到id中的位置
+     *
+     * @param timestamp 时间截(tick)
+     * @return 只含时间截部分的状态字
+     */
+    private long timestampWord(long timestamp) {
+        long delta = timestamp - epochTick;
+        if (delta > maxTimestamp) {
+            throw new IllegalStateException(String.format("timestamp %d is out of range of %s", timestamp, layout));
+        }
+        return delta << timestampShift;
+    }
+
+    /**
+     * 计算从首个ID开始能在同一tick内预留的数量
+     *
+     * @param first 首个ID
+     * @param max   最多预留的数量
+     * @return 预留的数量
+     */
+    int runLength(long first, int max) {
+        return (int) Math.min(max, sequenceMask + 1 - (first & sequenceMask));
+    }
+
+    /**
+     * 无锁模式下预留序列，通过CAS推进状态字
+     *
+     * @param max           最多预留的数量
+     * @param deadlineNanos 截止时间
+     * @return 首个ID
+     */
+    private long reserveLockFree(int max, long deadlineNanos) {
+        for (; ; ) {
+            Generation generation = this.generation;
+            if (generation == null) {
+                awaitIdentity(deadlineNanos);
+                continue;
+            }
+            long current = generation.state.get();
+            long lastTimestamp = timestampOf(current);
+            long timestamp = timeGen();
+
+            //状态字先于时间读取，若当前时间仍小于状态字中的时间戳，说明系统时钟回退过或者借用了未来的时间
+            if (timestamp < lastTimestamp) {
+                timestamp = tolerateBackwards(lastTimestamp, timestamp, deadlineNanos);
+                //回退过大，切换到备用身份后重新竞争
+                if (timestamp < 0) {
+                    lock.lock();
+                    try {
+                        switchToSpare(generation, lastTimestamp);
+                    } finally {
+                        lock.unlock();
+                    }
+                    continue;
+                }
+            }
+
+            long first;
+            if (timestamp == lastTimestamp) {
+                //tick内序列溢出，借用下一个tick
+                if ((current & sequenceMask) == sequenceMask) {
+                    first = timestampWord(nextTimestamp(lastTimestamp, deadlineNanos));
+                } else {
+                    first = current + 1;
+                }
+            } else {
+                first = timestampWord(timestamp) | sequenceStrategy.start(current & sequenceMask, sequenceMask);
+            }
+
+            long firstTimestamp = timestampOf(first);
+            if (firstTimestamp > generation.markTick) {
+                //超出外部记录的高水位，等待推进后重新竞争
+                awaitMark(generation, firstTimestamp, deadlineNanos);
+                continue;
+            }
+            if (firstTimestamp > journalTick) {
+                advanceJournal(firstTimestamp);
+            }
+            if (generation.state.compareAndSet(current, first + runLength(first, max) - 1)) {
+                //CAS期间身份已被切换或撤销，预留的序列作废，按新的身份重新竞争
+                if (this.generation != generation) {
+                    continue;
+                }
+                return first | generation.workerBits;
+            }
+        }
+    }
+
+    /**
+     * 加锁模式下预留序列
+     *
+     * @param max           最多预留的数量
+     * @param deadlineNanos 截止时间
+     * @return 首个ID
+     */
+    private long reserveLocked(int max, long deadlineNanos) {
+        lock(deadlineNanos);
+        try {
+            return reserveHoldingLock(max, deadlineNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在截止时间前获取锁
+     *
+     * @param deadlineNanos 截止时间
+     */
+    private void lock(long deadlineNanos) {
+        if (deadlineNanos == NO_DEADLINE) {
+            lock.lock();
+            return;
+        }
+        try {
+            if (!lock.tryLock(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw IdWaitTimeoutException.INSTANCE;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw IdWaitTimeoutException.INSTANCE;
+        }
+    }
+
+    /**
+     * 持有锁时预留序列
+     *
+     * @param max           最多预留的数量
+     * @param deadlineNanos 截止时间
+     * @return 首个ID
+     */
+    private long reserveHoldingLock(int max, long deadlineNanos) {
+        if (generation == null) {
+            //等待期间会暂时释放锁
+            awaitIdentity(deadlineNanos);
+        }
         long timestamp = timeGen();
 
-        //如果当前时间小于上一次ID生成的时间戳，说明系统时钟回退过这个时候应当抛出异常
-        if (timestamp < lastTimestamp) {
-            throw new RuntimeException(
-                    String.format("Clock moved backwards.  Refusing to generate appId for %d milliseconds", lastTimestamp - timestamp));
+        //如果当前时间小于上一次ID生成的时间戳，说明系统时钟回退过或者借用了未来的时间
+        while (timestamp < lastTimestamp) {
+            long tolerated = tolerateBackwards(lastTimestamp, timestamp, deadlineNanos);
+            if (tolerated >= 0) {
+                timestamp = tolerated;
+                break;
+            }
+            //回退过大，切换到备用身份后重新检查：备用身份带有高水位时仍要越过高水位
+            switchToSpare(generation, lastTimestamp);
+            timestamp = timeGen();
         }
 
-        //如果是同一时间生成的，则进行毫秒内序列
+        long first;
+        //如果是同一tick生成的，则进行tick内序列
         if (lastTimestamp == timestamp) {
-            sequence = (sequence + 1) & SEQUENCE_MASK;
-            //毫秒内序列溢出
-            if (sequence == 0) {
-                //阻塞到下一个毫秒,获得新的时间戳
-                timestamp = tilNextMillis(lastTimestamp);
+            first = (sequence + 1) & sequenceMask;
+            //tick内序列溢出
+            if (first == 0) {
+                //借用下一个tick，领先过多时阻塞等待
+                timestamp = nextTimestamp(lastTimestamp, deadlineNanos);
             }
         }
-        //时间戳改变，毫秒内序列重置
+        //时间戳改变，tick内序列按策略重新开始
         else {
-            sequence = 0L;
+            first = sequenceStrategy.start(sequence, sequenceMask);
+        }
+
+        if (timestamp > generation.markTick) {
+            //超出外部记录的高水位，等待推进后重新预留，等待期间会暂时释放锁
+            awaitMark(generation, timestamp, deadlineNanos);
+            return reserveHoldingLock(max, deadlineNanos);
         }
 
+        //移位并通过或运算拼到一起组成不含机器位的ID
+        first |= timestampWord(timestamp);
+        sequence = (first & sequenceMask) + runLength(first, max) - 1;
+
+        if (timestamp > journalTick) {
+            advanceJournal(timestamp);
+        }
         //上次生成ID的时间截
         lastTimestamp = timestamp;
-
-        //移位并通过或运算拼到一起组成64位的ID
-        return ((timestamp - TWEPOCH) << TIMESTAMP_LEFT_SHIFT)
-                | (dataCenterId << DATA_CENTER_ID_SHIFT)
-                | (workerId << WORKER_ID_SHIFT)
-                | sequence;
+        return first | generation.workerBits;
     }
 
     // ==============================Methods==========================================
 
     /**
-     * 阻塞到下一个毫秒，直到获得新的时间戳
+     * 处理时钟回退
+     * 回退量不超过{@link #toleranceTicks}时沿用上次的逻辑时间戳，依靠剩余的序列继续生成；
+     * 不超过{@link #rollbackMaxWaitTicks}时挂起等待时钟追回，最多等待{@link #rollbackMaxWaitMillis}毫秒；
+     * 否则返回-1，由调用方切换到备用身份。
+     * 落后的是高水位时，由于高水位都是提前写入的，可以额外等待{@link #floorWaitTicks}
+     *
+     * @param lastTimestamp 上次生成ID的时间截
+     * @param timestamp     当前时间戳
+     * @param deadlineNanos 截止时间
+     * @return 可以继续使用的时间戳，-1表示需要切换身份
+     */
+    private long tolerateBackwards(long lastTimestamp, long timestamp, long deadlineNanos) {
+        if (lastTimestamp - timestamp <= toleranceTicks) {
+            return lastTimestamp;
+        }
+        long maxWaitTicks = rollbackMaxWaitTicks;
+        long maxWaitMillis = rollbackMaxWaitMillis;
+        if (lastTimestamp <= floorTick) {
+            long waitTicks = floorWaitTicks;
+            maxWaitTicks += waitTicks;
+            maxWaitMillis += waitTicks * tickMillis;
+        }
+        if (lastTimestamp - timestamp <= maxWaitTicks) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+            do {
+                checkDeadline(deadlineNanos);
+                LockSupport.parkNanos(this, ROLLBACK_PARK_NANOS);
+                timestamp = timeGen();
+                if (lastTimestamp - timestamp <= toleranceTicks) {
+                    return Math.max(lastTimestamp, timestamp);
+                }
+            } while (System.nanoTime() - deadline < 0);
+        }
+        return -1L;
+    }
+
+    /**
+     * 时钟大幅回退时切换到备用身份，调用方需持有{@link #lock}
+     * 备用身份由{@link SpareWorkerIdProvider}预先占用，这里只是取出，不会在持有锁时访问外部系统；
+     * 切换后把原身份生成过的最大时间截交给{@link SpareWorkerIdProvider#retire}，由其记下后释放原身份
+     *
+     * @param observed      发现回退时使用的身份
+     * @param lastTimestamp 上次生成ID的时间截
+     */
+    private void switchToSpare(Generation observed, long lastTimestamp) {
+        if (generation != observed) {
+            //已被其他线程切换
+            return;
+        }
+        long backwards = (lastTimestamp - timeGen()) * tickMillis;
+        if (lastTimestamp <= floorTick) {
+            //落后的是高水位而不是本身份生成过的ID，时钟与高水位的差距超出了可以等待的范围，切换到备用身份同样可能受高水位限制
+            throw new RuntimeException(
+                    String.format("Clock is behind high water mark.  Refusing to generate appId for %d milliseconds", backwards));
+        }
+        WorkerIdentity spare = null;
+        long spareFloorMillis = 0L;
+        long spareMarkMillis = Long.MAX_VALUE;
+        if (spareWorkerIdProvider != null) {
+            try {
+                spare = spareWorkerIdProvider.acquire();
+                if (spare != null) {
+                    spareFloorMillis = spareWorkerIdProvider.floorMillis(spare);
+                    spareMarkMillis = spareWorkerIdProvider.markMillis(spare);
+                }
+            } catch (Exception e) {
+                log.error("acquire spare worker identity fail, because ", e);
+                spare = null;
+            }
+        }
+        if (spare == null) {
+            throw new RuntimeException(
+                    String.format("Clock moved backwards.  Refusing to generate appId for %d milliseconds", backwards));
+        }
+        log.warn("clock moved backwards {} milliseconds, switch from {} to {}", backwards, observed.identity, spare);
+        install(new Generation(spare, layout, spareMarkMillis / tickMillis), spareFloorMillis);
+        long retiredTick = retiredTicks.get(observed.identity);
+        try {
+            spareWorkerIdProvider.retire(this, observed.identity, spare, retiredTick * tickMillis);
+        } catch (Exception e) {
+            log.warn("retire worker identity {} fail, because {}", observed.identity, e.getMessage());
+        }
+    }
+
+    /**
+     * 启用新的身份并重置序列，调用方需持有{@link #lock}
+     * 先撤下当前身份并记下其生成过的最大时间截，新的身份是本实例用过的身份时只使用当时记下的时间截之后的时间截
+     *
+     * @param next        新的身份，为null时撤销身份
+     * @param floorMillis 身份之前的持有者使用过的最大时间截(毫秒)，没有时为0
+     */
+    private void install(Generation next, long floorMillis) {
+        Generation previous = generation;
+        if (previous != null) {
+            long last = lastTimestamp;
+            generation = null;
+            //无锁模式下先撤下再读取状态字，撤下前完成CAS的ID都已计入，撤下后完成CAS的ID会被丢弃
+            last = Math.max(last, timestampOf(previous.state.get()));
+            retiredTicks.merge(previous.identity, last, Math::max);
+        }
+        if (next != null) {
+            Long retiredTick = retiredTicks.get(next.identity);
+            if (retiredTick != null) {
+                //重新启用本实例用过的身份，不低于当时生成过的时间截
+                floorMillis = Math.max(floorMillis, retiredTick * tickMillis);
+            }
+        }
+        long identityFloor = floorMillis / tickMillis;
+        if (identityFloor > epochTick && identityFloor > journalFloorTick) {
+            floorTick = identityFloor;
+            floorWaitTicks = Math.max(journalWindowTicks, floorMaxWaitTicks);
+        } else {
+            floorTick = journalFloorTick;
+            floorWaitTicks = journalWindowTicks;
+        }
+        long floorTick = this.floorTick;
+        if (floorTick < 0) {
+            sequence = 0L;
+            lastTimestamp = -1L;
+        } else {
+            //从高水位之后开始，视为高水位所在tick的序列已用尽
+            sequence = sequenceMask;
+            lastTimestamp = floorTick;
+            if (next != null) {
+                next.state.set(timestampWord(floorTick) | sequenceMask);
+            }
+        }
+        generation = next;
+    }
+
+    /**
+     * 先把高水位推进到时间截之后再发放ID，每个窗口只写一次文件
+     *
+     * @param timestamp 即将使用的时间截(tick)
+     */
+    private void advanceJournal(long timestamp) {
+        journalTick = journal.advance(timestamp * tickMillis) / tickMillis;
+    }
+
+    /**
+     * tick内序列溢出后获取下一个时间戳
+     * 允许领先系统时钟不超过{@link #maxLeadTicks}个tick，直接借用未来的tick；超出时阻塞到领先量回到允许范围内
      *
      * @param lastTimestamp 上次生成ID的时间截
+     * @param deadlineNanos 截止时间
+     * @return 下一个时间戳
+     */
+    private long nextTimestamp(long lastTimestamp, long deadlineNanos) {
+        long target = lastTimestamp + 1;
+        long timestamp = timeGen();
+        if (target - timestamp > maxLeadTicks) {
+            timestamp = tilNextTick(target - maxLeadTicks - 1, deadlineNanos);
+        }
+        return Math.max(target, timestamp);
+    }
+
+    /**
+     * 阻塞到下一个tick，直到获得新的时间戳
+     * 距离下一个tick超过1ms时先挂起到最后1ms，剩下的部分按照等待策略等待，避免粗粒度的tick下长时间自旋
+     *
+     * @param lastTimestamp 上次生成ID的时间截
+     * @param deadlineNanos 截止时间
      * @return 当前时间戳
      */
-    private long tilNextMillis(long lastTimestamp) {
+    private long tilNextTick(long lastTimestamp, long deadlineNanos) {
         long timestamp = timeGen();
-        while (timestamp <= lastTimestamp) {
+        for (int attempts = 0; timestamp <= lastTimestamp; attempts++) {
+            checkDeadline(deadlineNanos);
+            long remainingMillis = (lastTimestamp + 1) * tickMillis - timeSource.currentTimeMillis();
+            if (remainingMillis > 1) {
+                long parkNanos = TimeUnit.MILLISECONDS.toNanos(remainingMillis - 1);
+                if (deadlineNanos != NO_DEADLINE) {
+                    parkNanos = Math.min(parkNanos, deadlineNanos - System.nanoTime());
+                }
+                LockSupport.parkNanos(this, parkNanos);
+            } else {
+                waitStrategy.idle(attempts);
+            }
             timestamp = timeGen();
         }
         return timestamp;
     }
 
     /**
-     * 返回以毫秒为单位的当前时间
+     * 超过截止时间时抛出预先创建的异常
      *
-     * @return 当前时间(毫秒)
+     * @param deadlineNanos 截止时间
      */
-    private long timeGen() {
-        return System.currentTimeMillis();
+    private static void checkDeadline(long deadlineNanos) {
+        if (deadlineNanos != NO_DEADLINE && System.nanoTime() - deadlineNanos >= 0) {
+            throw IdWaitTimeoutException.INSTANCE;
+        }
+    }
+
+    /**
+     * 返回以tick为单位的当前时间
+     *
+     * @return 当前时间(tick)
+     */
+    long timeGen() {
+        long millis = timeSource.currentTimeMillis();
+        return tickMillis == 1 ? millis : millis / tickMillis;
     }
 
     private static class SnowflakeIdWorkerHolder {
 
 
+        private static final ReentrantLock INIT_LOCK = new ReentrantLock();
+
         private static volatile SnowflakeIdWorker instance;
 
-        private static synchronized void init(long workerId, long dataCenterId) {
-            if (SnowflakeIdWorkerHolder.instance != null) {
-                log.error("SnowflakeIdWorker has init!!!!!!!");
-            } else {
-                SnowflakeIdWorkerHolder.instance = new SnowflakeIdWorker(workerId, dataCenterId);
+        private static void init(Builder builder) {
+            INIT_LOCK.lock();
+            try {
+                if (SnowflakeIdWorkerHolder.instance != null) {
+                    log.error("SnowflakeIdWorker has init!!!!!!!");
+                } else {
+                    SnowflakeIdWorkerHolder.instance = new SnowflakeIdWorker(builder);
+                }
+            } finally {
+                INIT_LOCK.unlock();
+            }
+        }
+
+        private static void reInit(Builder builder) {
+            INIT_LOCK.lock();
+            try {
+                instance = new SnowflakeIdWorker(builder);
+            } finally {
+                INIT_LOCK.unlock();
+            }
+        }
+
+    }
+
+    /**
+     * 身份以及在该身份下的无锁状态字
+     */
+    private static final class Generation {
+
+        private final WorkerIdentity identity;
+        /**
+         * 预先移位好的数据中心ID与工作机器ID
+         */
+        private final long workerBits;
+        /**
+         * 无锁模式下的状态字，按id的格式打包了(时间截 - 开始时间截)与tick内序列，数据中心ID与工作机器ID位恒为0
+         */
+        private final PaddedAtomicLong state = new PaddedAtomicLong(0L);
+        /**
+         * 外部记录的高水位(tick)，只能使用不超过该值的时间截，只在持有锁时写入，不限制时为Long.MAX_VALUE
+         */
+        private volatile long markTick;
+
+        private Generation(WorkerIdentity identity, BitLayout layout, long markTick) {
+            long workerId = identity.getWorkerId();
+            long dataCenterId = identity.getDataCenterId();
+            if (workerId > layout.getMaxWorkerId() || workerId < 0) {
+                throw new IllegalArgumentException(String.format("worker Id can't be greater than %d or less than 0", layout.getMaxWorkerId()));
+            }
+            if (dataCenterId > layout.getMaxDataCenterId() || dataCenterId < 0) {
+                throw new IllegalArgumentException(String.format("data center Id can't be greater than %d or less than 0", layout.getMaxDataCenterId()));
             }
+            this.identity = identity;
+            this.markTick = markTick;
+            //状态字不含分片位，移位量需要扣除分片所占的位数
+            int shardBits = layout.getShardBits();
+            this.workerBits = (dataCenterId << (layout.getDataCenterIdShift() - shardBits))
+                    | (workerId << (layout.getWorkerIdShift() - shardBits));
+        }
+    }
+
+    /**
+     * The class Builder.
+     * id生成器的构建参数
+     */
+    public static final class Builder {
+
+        private long workerId;
+        private long dataCenterId;
+        private boolean lockFree;
+        private TimeSource timeSource;
+        private long maxLeadMillis;
+        private long rollbackToleranceMillis;
+        private long rollbackMaxWaitMillis;
+        private SpareWorkerIdProvider spareWorkerIdProvider;
+        private WaitStrategy waitStrategy;
+        private BitLayout layout;
+        private SequenceStrategy sequenceStrategy;
+        private boolean pendingIdentity;
+        private HighWaterJournal journal;
+        private long floorMillis;
+        private long floorMaxWaitMillis;
+        private long markMillis = Long.MAX_VALUE;
+        private long identityTimeoutMillis;
+
+        private Builder() {
+        }
+
+        /**
+         * 工作ID (0~31)
+         *
+         * @param workerId the worker id
+         * @return the builder
+         */
+        public Builder workerId(long workerId) {
+            this.workerId = workerId;
+            return this;
+        }
+
+        /**
+         * 数据中心ID (0~31)
+         *
+         * @param dataCenterId the data center id
+         * @return the builder
+         */
+        public Builder dataCenterId(long dataCenterId) {
+            this.dataCenterId = dataCenterId;
+            return this;
+        }
+
+        /**
+         * 是否使用基于CAS的无锁模式，默认为加锁模式
+         *
+         * @param lockFree the lock free
+         * @return the builder
+         */
+        public Builder lockFree(boolean lockFree) {
+            this.lockFree = lockFree;
+            return this;
+        }
+
+        /**
+         * 时钟，默认为{@link TickerTimeSource#getDefault()}
+         *
+         * @param timeSource the time source
+         * @return the builder
+         */
+        public Builder timeSource(TimeSource timeSource) {
+            this.timeSource = timeSource;
+            return this;
+        }
+
+        /**
+         * 序列溢出时允许借用的未来毫秒数，默认为0即不借用，按tick向下取整
+         *
+         * @param maxLeadMillis the max lead millis
+         * @return the builder
+         */
+        public Builder maxLeadMillis(long maxLeadMillis) {
+            this.maxLeadMillis = maxLeadMillis;
+            return this;
         }
 
-        private static synchronized void reInit(long workerId, long dataCenterId) {
-            instance = new SnowflakeIdWorker(workerId, dataCenterId);
+        /**
+         * 时钟回退不超过该毫秒数时沿用上次的逻辑时间戳继续生成，默认为0，按tick向下取整
+         * 与{@link #maxLeadMillis(long)}相互独立，不影响序列溢出时是否借用未来的tick
+         *
+         * @param rollbackToleranceMillis the rollback tolerance millis
+         * @return the builder
+         */
+        public Builder rollbackToleranceMillis(long rollbackToleranceMillis) {
+            this.rollbackToleranceMillis = rollbackToleranceMillis;
+            return this;
         }
 
+        /**
+         * 时钟回退不超过该毫秒数时挂起等待时钟追回，默认为0即不等待
+         *
+         * @param rollbackMaxWaitMillis the rollback max wait millis
+         * @return the builder
+         */
+        public Builder rollbackMaxWaitMillis(long rollbackMaxWaitMillis) {
+            this.rollbackMaxWaitMillis = rollbackMaxWaitMillis;
+            return this;
+        }
+
+        /**
+         * 时钟回退过大时提供备用身份，默认为null即直接抛出异常
+         *
+         * @param spareWorkerIdProvider the spare worker id provider
+         * @return the builder
+         */
+        public Builder spareWorkerIdProvider(SpareWorkerIdProvider spareWorkerIdProvider) {
+            this.spareWorkerIdProvider = spareWorkerIdProvider;
+            return this;
+        }
+
+        /**
+         * 等待时钟前进时的策略，默认为{@link BusySpinWaitStrategy}
+         * 策略允许借用的未来毫秒数同样计入领先量上限
+         *
+         * @param waitStrategy the wait strategy
+         * @return the builder
+         */
+        public Builder waitStrategy(WaitStrategy waitStrategy) {
+            this.waitStrategy = waitStrategy;
+            return this;
+        }
+
+        /**
+         * id的位布局，默认为{@link BitLayout#DEFAULT}
+         *
+         * @param layout the layout
+         * @return the builder
+         */
+        public Builder layout(BitLayout layout) {
+            this.layout = layout;
+            return this;
+        }
+
+        /**
+         * 进入新的tick时序列的起始值，默认为{@link SequenceStrategy#RESET}
+         *
+         * @param sequenceStrategy the sequence strategy
+         * @return the builder
+         */
+        public Builder sequenceStrategy(SequenceStrategy sequenceStrategy) {
+            this.sequenceStrategy = sequenceStrategy;
+            return this;
+        }
+
+        /**
+         * 高水位日志，默认不记录
+         * 设置后启动时只使用日志中高水位之后的时间截，时钟落后于高水位时按时钟回退处理
+         *
+         * @param journal the journal
+         * @return the builder
+         */
+        public Builder highWaterJournal(HighWaterJournal journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        /**
+         * 身份之前的持有者使用过的最大时间截(毫秒)，默认为0即没有
+         * 设置后只使用其后的时间截，时钟落后时借用或者等待
+         *
+         * @param floorMillis the floor millis
+         * @return the builder
+         */
+        public Builder floorMillis(long floorMillis) {
+            this.floorMillis = floorMillis;
+            return this;
+        }
+
+        /**
+         * 已经记录在外部的高水位(毫秒)，默认为Long.MAX_VALUE即不限制
+         * 设置后只生成不超过该值的ID，之后通过{@link SnowflakeIdWorker#extendMark(WorkerIdentity, long)}推进
+         *
+         * @param markMillis the mark millis
+         * @return the builder
+         */
+        public Builder markMillis(long markMillis) {
+            this.markMillis = markMillis;
+            return this;
+        }
+
+        /**
+         * 时钟落后于身份之前的持有者留下的高水位时，在时钟回退的等待时间之外最多额外等待的毫秒数，默认为0
+         *
+         * @param floorMaxWaitMillis the floor max wait millis
+         * @return the builder
+         */
+        public Builder floorMaxWaitMillis(long floorMaxWaitMillis) {
+            if (floorMaxWaitMillis < 0) {
+                throw new IllegalArgumentException(String.format("floor max wait millis can't be less than 0, but is %d", floorMaxWaitMillis));
+            }
+            this.floorMaxWaitMillis = floorMaxWaitMillis;
+            return this;
+        }
+
+        /**
+         * 不指定身份构建，用于异步启动
+         * 身份之后通过{@link SnowflakeIdWorker#switchIdentity(WorkerIdentity)}给出，在此之前生成ID的线程最多等待指定的时间，
+         * 设置的工作机器ID与数据中心ID将被忽略
+         *
+         * @param identityTimeoutMillis 等待身份分配的最长时间(毫秒)
+         * @return the builder
+         */
+        public Builder pendingIdentity(long identityTimeoutMillis) {
+            this.pendingIdentity = true;
+            return identityTimeoutMillis(identityTimeoutMillis);
+        }
+
+        /**
+         * 身份尚未分配或者已被撤销时，生成ID等待新身份的最长时间，默认为0即直接抛出异常
+         *
+         * @param identityTimeoutMillis the identity timeout millis
+         * @return the builder
+         */
+        public Builder identityTimeoutMillis(long identityTimeoutMillis) {
+            if (identityTimeoutMillis < 0) {
+                throw new IllegalArgumentException(String.format("identity timeout millis can't be less than 0, but is %d", identityTimeoutMillis));
+            }
+            this.identityTimeoutMillis = identityTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * 构建一个独立的id生成器，与{@link #getInstance()}返回的实例互不影响
+         * 不同实例必须使用不同的身份，否则生成的ID会重复
+         *
+         * @return the snowflake id worker
+         */
+        public SnowflakeIdWorker build() {
+            return new SnowflakeIdWorker(this);
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package com.sz.core.utils;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The class Snowflake id worker registry.
+ * 按名称管理多个相互独立的id生成器，每个生成器拥有各自的身份与序列空间
+ *
+ * @since JDK 1.8
+ */
+public class SnowflakeIdWorkerRegistry {
+
+    private final SnowflakeIdWorker defaultWorker;
+    private final Map<String, SnowflakeIdWorker> workers;
+
+    /**
+     * 构造函数
+     *
+     * @param defaultWorker 默认的id生成器
+     * @param workers       按名称区分的id生成器
+     */
+    public SnowflakeIdWorkerRegistry(SnowflakeIdWorker defaultWorker, Map<String, SnowflakeIdWorker> workers) {
+        this.defaultWorker = defaultWorker;
+        this.workers = Collections.unmodifiableMap(new LinkedHashMap<>(workers));
+    }
+
+    /**
+     * 获取默认的id生成器
+     *
+     * @return the default
+     */
+    public SnowflakeIdWorker getDefault() {
+        return defaultWorker;
+    }
+
+    /**
+     * 按名称获取id生成器
+     *
+     * @param name 名称
+     * @return the snowflake id worker
+     */
+    public SnowflakeIdWorker get(String name) {
+        SnowflakeIdWorker worker = workers.get(name);
+        if (worker == null) {
+            throw new IllegalArgumentException(String.format("snowflake id worker named %s is not exist", name));
+        }
+        return worker;
+    }
+
+    /**
+     * 所有id生成器的名称
+     *
+     * @return the names
+     */
+    public Set<String> getNames() {
+        return workers.keySet();
+    }
+}
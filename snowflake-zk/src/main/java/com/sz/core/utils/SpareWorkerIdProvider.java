@@ -0,0 +1,55 @@
+package com.sz.core.utils;
+
+/**
+ * The interface Spare worker id provider.
+ * 时钟大幅回退时为id生成器提供备用的身份
+ * <p>
+ * 各方法都在生成ID的线程持有id生成器的锁时调用，其他线程此时都在等待，因此不能阻塞：
+ * 备用身份应当预先占用好，{@link #acquire()}只是取出；归还原身份等需要访问外部系统的工作应交给其他线程完成。
+ *
+ * @since JDK 1.8
+ */
+@FunctionalInterface
+public interface SpareWorkerIdProvider {
+
+    /**
+     * 取出一个预先占用、当前未被任何其他进程使用的身份，不能阻塞
+     *
+     * @return 备用身份，没有可用的备用身份时返回null
+     * @throws Exception the exception
+     */
+    WorkerIdentity acquire() throws Exception;
+
+    /**
+     * 备用身份之前的持有者使用过的最大时间截，切换后只使用其后的时间截，不能阻塞
+     *
+     * @param identity 申请到的备用身份
+     * @return 最大时间截(毫秒)，没有时为0
+     * @throws Exception the exception
+     */
+    default long floorMillis(WorkerIdentity identity) throws Exception {
+        return 0L;
+    }
+
+    /**
+     * 备用身份已经记录在外部的高水位，切换后只生成不超过该值的ID，不能阻塞
+     *
+     * @param identity 申请到的备用身份
+     * @return 高水位(毫秒)，不限制时为Long.MAX_VALUE
+     * @throws Exception the exception
+     */
+    default long markMillis(WorkerIdentity identity) throws Exception {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * 已切换到备用身份，原身份不再生成ID，可以在记下其最大时间截后释放，不能阻塞
+     *
+     * @param worker     切换身份的id生成器
+     * @param retired    原身份
+     * @param spare      换用的备用身份
+     * @param lastMillis 原身份生成过的最大时间截(毫秒)
+     */
+    default void retire(SnowflakeIdWorker worker, WorkerIdentity retired, WorkerIdentity spare, long lastMillis) {
+    }
+}
@@ -0,0 +1,72 @@
+package com.sz.core.utils;
+
+/**
+ * The class Striped snowflake id worker.
+ * 按线程分段租用序列的id生成器
+ * <p>
+ * 每个线程从共享的{@link SnowflakeIdWorker}一次租用当前tick内的一小段连续序列，之后在本线程内直接发放，不再访问任何共享变量。
+ * 当前tick过去后，租约中剩余未用的序列直接丢弃，下一次调用会重新租用。
+ * 共享的生成器的身份被撤销(例如zk会话丢失)后，撤销前租用的序列同样丢弃，不再以可能已被其他进程占用的身份发放。
+ * <p>
+ * 注意：生成的id全局唯一，且同一线程内严格递增，但不同线程之间只保证大致按时间排序。
+ * 同一tick内，一个线程发放的id可能小于另一个线程更早发放的id；跨tick后仍然有序。
+ * 布局中带有分片位时，发放的id分片为0。
+ *
+ * @since JDK 1.8
+ */
+public class StripedSnowflakeIdWorker {
+
+    private final SnowflakeIdWorker idWorker;
+    /**
+     * 每次租用的序列数量
+     */
+    private final int leaseSize;
+    private final int shardBits;
+    private final ThreadLocal<Lease> leases = ThreadLocal.withInitial(Lease::new);
+
+    /**
+     * 构造函数
+     *
+     * @param idWorker  共享的id生成器
+     * @param leaseSize 每次租用的序列数量
+     */
+    public StripedSnowflakeIdWorker(SnowflakeIdWorker idWorker, int leaseSize) {
+        long sequenceCount = idWorker.getLayout().getSequenceMask() + 1;
+        if (leaseSize <= 0 || leaseSize > sequenceCount) {
+            throw new IllegalArgumentException(String.format("lease size can't be greater than %d or less than 1", sequenceCount));
+        }
+        this.idWorker = idWorker;
+        this.leaseSize = leaseSize;
+        this.shardBits = idWorker.getLayout().getShardBits();
+    }
+
+    /**
+     * 获得下一个ID (该方法是线程安全的)
+     *
+     * @return SnowflakeId
+     */
+    public long nextId() {
+        Lease lease = leases.get();
+        if (lease.next < lease.limit && idWorker.timeGen() <= lease.timestamp
+                && idWorker.revocations() == lease.revocations) {
+            return lease.next++ << shardBits;
+        }
+        // 租约用完、已过期或身份已被撤销，重新租用一段序列；先读撤销次数，租用期间发生的撤销会使下一次调用丢弃租约
+        lease.revocations = idWorker.revocations();
+        long id = idWorker.reserve(leaseSize);
+        lease.timestamp = idWorker.timestampOf(id);
+        lease.next = id + 1;
+        lease.limit = id + idWorker.runLength(id, leaseSize);
+        return id << shardBits;
+    }
+
+    /**
+     * 线程持有的序列租约，[next, limit)为尚未发放的不含分片位的id
+     */
+    private static class Lease {
+        private long timestamp = -1L;
+        private long next;
+        private long limit;
+        private long revocations;
+    }
+}
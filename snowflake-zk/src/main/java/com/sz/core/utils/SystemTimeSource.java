@@ -0,0 +1,20 @@
+package com.sz.core.utils;
+
+/**
+ * The class System time source.
+ * 每次直接调用{@link System#currentTimeMillis()}的时钟
+ *
+ * @since JDK 1.8
+ */
+public enum SystemTimeSource implements TimeSource {
+
+    /**
+     * 单例
+     */
+    INSTANCE;
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
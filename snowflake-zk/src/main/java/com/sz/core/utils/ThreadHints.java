@@ -0,0 +1,55 @@
+package com.sz.core.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * The class Thread hints.
+ * 等待策略用到的与JDK版本相关的线程操作
+ * <p>
+ * 这是JDK8基线的实现：运行在JDK9及以上时通过MethodHandle调用{@code Thread.onSpinWait()}，不识别虚拟线程。
+ * 多版本jar中另有JDK21的实现(src/main/java21)，直接调用{@code Thread.onSpinWait()}并识别虚拟线程，
+ * 运行在JDK21及以上时由类加载器自动选用。
+ *
+ * @since JDK 1.8
+ */
+final class ThreadHints {
+
+    private static final MethodHandle ON_SPIN_WAIT;
+
+    static {
+        MethodHandle handle = null;
+        try {
+            handle = MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+        } catch (Exception ignored) {
+            // JDK8中没有该方法，退化为空转
+        }
+        ON_SPIN_WAIT = handle;
+    }
+
+    private ThreadHints() {
+    }
+
+    /**
+     * 提示CPU当前处于自旋状态
+     */
+    static void onSpinWait() {
+        if (ON_SPIN_WAIT != null) {
+            try {
+                ON_SPIN_WAIT.invokeExact();
+            } catch (Throwable ignored) {
+                // Thread.onSpinWait不会抛出异常
+            }
+        }
+    }
+
+    /**
+     * 当前线程是否为虚拟线程
+     *
+     * @return JDK8基线中总是false
+     */
+    static boolean isVirtualThread() {
+        return false;
+    }
+}
@@ -0,0 +1,119 @@
+package com.sz.core.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The class Ticker time source.
+ * 由后台线程缓存的时钟
+ * <p>
+ * 后台线程按固定精度推进当前毫秒并写入volatile字段，调用方读取时只需一次volatile读，不再触发系统调用。
+ * 当前时间由{@link System#nanoTime()}相对锚点推算，每秒用系统时间重新校准一次锚点；
+ * 校准带来的误差在{@link #ROLLBACK_THRESHOLD_MILLIS}以内，此时发布的时间只前进不后退；
+ * 超出时说明系统时钟回退了，发布的时间随之回退，由id生成器按时钟回退分级处理，而不是在时钟冻结期间阻塞等待。
+ *
+ * @since JDK 1.8
+ */
+public class TickerTimeSource implements TimeSource {
+
+    /**
+     * 默认的推进精度，单位为ns
+     */
+    public static final long DEFAULT_RESOLUTION_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    /**
+     * 用系统时间重新校准锚点的间隔，单位为ns
+     */
+    private static final long ANCHOR_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * 校准时允许的误差，回退超过该值时视为系统时钟回退，单位为ms
+     */
+    static final long ROLLBACK_THRESHOLD_MILLIS = 2L;
+
+    private final long resolutionNanos;
+    /**
+     * 校准锚点使用的系统时钟
+     */
+    private final TimeSource wallClock;
+    private final Thread ticker;
+    private volatile boolean running = true;
+    /**
+     * 当前时间(毫秒)
+     */
+    private volatile long currentMillis;
+    /**
+     * 锚点的系统时间与nanoTime，只由后台线程读写
+     */
+    private long anchorMillis;
+    private long anchorNanos;
+
+    /**
+     * 构造函数
+     *
+     * @param resolutionNanos 推进精度，单位为ns
+     */
+    public TickerTimeSource(long resolutionNanos) {
+        this(resolutionNanos, SystemTimeSource.INSTANCE);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param resolutionNanos 推进精度，单位为ns
+     * @param wallClock       校准锚点使用的系统时钟
+     */
+    TickerTimeSource(long resolutionNanos, TimeSource wallClock) {
+        if (resolutionNanos <= 0 || resolutionNanos > TimeUnit.MILLISECONDS.toNanos(1)) {
+            throw new IllegalArgumentException(String.format("resolution can't be greater than 1ms or less than 1ns, but is %dns", resolutionNanos));
+        }
+        this.resolutionNanos = resolutionNanos;
+        this.wallClock = wallClock;
+        this.anchorMillis = wallClock.currentTimeMillis();
+        this.anchorNanos = System.nanoTime();
+        this.currentMillis = anchorMillis;
+        this.ticker = new Thread(this::tick, "snowflake-time-ticker");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * 获取进程内共享的默认时钟
+     *
+     * @return the default
+     */
+    public static TickerTimeSource getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return currentMillis;
+    }
+
+    /**
+     * 停止后台线程，之后时间不再推进
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(ticker);
+    }
+
+    private void tick() {
+        while (running) {
+            long nanos = System.nanoTime();
+            if (nanos - anchorNanos >= ANCHOR_INTERVAL_NANOS) {
+                anchorMillis = wallClock.currentTimeMillis();
+                anchorNanos = nanos;
+            }
+            long now = anchorMillis + TimeUnit.NANOSECONDS.toMillis(nanos - anchorNanos);
+            long current = currentMillis;
+            if (now > current || current - now > ROLLBACK_THRESHOLD_MILLIS) {
+                currentMillis = now;
+            }
+            LockSupport.parkNanos(this, resolutionNanos);
+        }
+    }
+
+    private static class DefaultHolder {
+        private static final TickerTimeSource INSTANCE = new TickerTimeSource(DEFAULT_RESOLUTION_NANOS);
+    }
+}
@@ -0,0 +1,17 @@
+package com.sz.core.utils;
+
+/**
+ * The interface Time source.
+ * id生成器使用的时钟
+ *
+ * @since JDK 1.8
+ */
+public interface TimeSource {
+
+    /**
+     * 返回以毫秒为单位的当前时间
+     *
+     * @return 当前时间(毫秒)
+     */
+    long currentTimeMillis();
+}
@@ -0,0 +1,26 @@
+package com.sz.core.utils;
+
+/**
+ * The interface Wait strategy.
+ * id生成器等待时钟前进时的策略
+ *
+ * @since JDK 1.8
+ */
+public interface WaitStrategy {
+
+    /**
+     * 每次发现时钟尚未到达目标时间后调用一次
+     *
+     * @param attempts 本次等待中已经调用的次数，从0开始
+     */
+    void idle(int attempts);
+
+    /**
+     * 序列溢出时允许直接借用的未来毫秒数，在此范围内不会等待
+     *
+     * @return the borrow millis
+     */
+    default long borrowMillis() {
+        return 0L;
+    }
+}
@@ -0,0 +1,54 @@
+package com.sz.core.utils;
+
+/**
+ * The class Worker identity.
+ * id生成器的身份，即数据中心ID与工作机器ID
+ *
+ * @since JDK 1.8
+ */
+public final class WorkerIdentity {
+
+    private final long workerId;
+    private final long dataCenterId;
+
+    /**
+     * 构造函数
+     *
+     * @param workerId     工作ID
+     * @param dataCenterId 数据中心ID
+     */
+    public WorkerIdentity(long workerId, long dataCenterId) {
+        this.workerId = workerId;
+        this.dataCenterId = dataCenterId;
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    public long getDataCenterId() {
+        return dataCenterId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof WorkerIdentity)) {
+            return false;
+        }
+        WorkerIdentity that = (WorkerIdentity) o;
+        return workerId == that.workerId && dataCenterId == that.dataCenterId;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(workerId) + Long.hashCode(dataCenterId);
+    }
+
+    @Override
+    public String toString() {
+        return "WorkerIdentity(workerId=" + workerId + ", dataCenterId=" + dataCenterId + ")";
+    }
+}
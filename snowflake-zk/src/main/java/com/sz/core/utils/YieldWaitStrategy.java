@@ -0,0 +1,32 @@
+package com.sz.core.utils;
+
+/**
+ * The class Yield wait strategy.
+ * 让出CPU的等待策略，先自旋若干次再调用{@link Thread#yield()}
+ *
+ * @since JDK 1.8
+ */
+public final class YieldWaitStrategy implements WaitStrategy {
+
+    /**
+     * 单例
+     */
+    public static final YieldWaitStrategy INSTANCE = new YieldWaitStrategy();
+
+    /**
+     * 开始让出CPU之前的自旋次数
+     */
+    private static final int SPIN_TRIES = 100;
+
+    private YieldWaitStrategy() {
+    }
+
+    @Override
+    public void idle(int attempts) {
+        if (attempts < SPIN_TRIES) {
+            BusySpinWaitStrategy.INSTANCE.idle(attempts);
+        } else {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.sz.core.utils;
+
+/**
+ * The class Thread hints.
+ * 等待策略用到的与JDK版本相关的线程操作，多版本jar中JDK21的实现
+ * <p>
+ * 直接调用{@link Thread#onSpinWait()}，可以被JIT内联为CPU的自旋提示指令；
+ * 并识别虚拟线程，使等待策略不在虚拟线程上忙等而占住载体线程。
+ *
+ * @since JDK 21
+ */
+final class ThreadHints {
+
+    private ThreadHints() {
+    }
+
+    /**
+     * 提示CPU当前处于自旋状态
+     */
+    static void onSpinWait() {
+        Thread.onSpinWait();
+    }
+
+    /**
+     * 当前线程是否为虚拟线程
+     *
+     * @return the boolean
+     */
+    static boolean isVirtualThread() {
+        return Thread.currentThread().isVirtual();
+    }
+}
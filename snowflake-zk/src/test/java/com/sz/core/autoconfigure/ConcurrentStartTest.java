@@ -0,0 +1,132 @@
+package com.sz.core.autoconfigure;
+
+import com.sz.core.properties.WorkerProperty;
+import com.sz.core.properties.ZkProperty;
+import com.sz.core.utils.BitLayout;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.test.TestingServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The class Concurrent start test.
+ * 在本地的zk上模拟大量实例同时启动：每个实例使用独立的zk客户端同时申请baseId，得到的baseId互不相同；
+ * 先在空目录上启动一轮，全部关闭后再启动一轮模拟滚动发布，按不同的探测顺序分别输出耗时与冲突次数；
+ * HASHED按进程号与主机名排列，同一进程内的实例得到相同的排列，无法在这里模拟
+ *
+ * @since JDK 1.8
+ */
+public class ConcurrentStartTest {
+
+    private static final int STARTERS = 32;
+
+    private static TestingServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new TestingServer(true);
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void sequentialProbeAllocatesDistinctBaseIds() throws Exception {
+        checkConcurrentStart(ZkProperty.ProbeOrderType.SEQUENTIAL);
+    }
+
+    @Test
+    public void randomProbeAllocatesDistinctBaseIds() throws Exception {
+        checkConcurrentStart(ZkProperty.ProbeOrderType.RANDOM);
+    }
+
+    /**
+     * 每种探测顺序使用独立的命名空间，依次在空目录上与重启后的目录上各启动一轮
+     *
+     * @param probeOrder 探测顺序
+     */
+    private static void checkConcurrentStart(ZkProperty.ProbeOrderType probeOrder) throws Exception {
+        String nameSpace = "start-" + probeOrder.name().toLowerCase();
+        startRound(nameSpace, probeOrder, "fresh");
+        startRound(nameSpace, probeOrder, "restart");
+    }
+
+    /**
+     * 同时启动一轮实例，全部申请完成后断言baseId互不相同，输出耗时与冲突次数，最后关闭全部客户端释放baseId
+     *
+     * @param nameSpace  zk命名空间
+     * @param probeOrder 探测顺序
+     * @param round      本轮的名称
+     */
+    private static void startRound(String nameSpace, ZkProperty.ProbeOrderType probeOrder, String round) throws Exception {
+        List<SZConfig> configs = new ArrayList<>();
+        List<CuratorFramework> clients = new ArrayList<>();
+        for (int i = 0; i < STARTERS; i++) {
+            ZkProperty zkProperty = new ZkProperty();
+            zkProperty.setZkService(server.getConnectString());
+            zkProperty.setNameSpace(nameSpace);
+            zkProperty.setProbeOrder(probeOrder);
+            SZConfig config = new SZConfig(zkProperty, new WorkerProperty());
+            CuratorFramework client = config.createZkClient();
+            client.start();
+            assertTrue(client.blockUntilConnected(10, TimeUnit.SECONDS));
+            configs.add(config);
+            clients.add(client);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(STARTERS);
+        CountDownLatch go = new CountDownLatch(1);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int i = 0; i < STARTERS; i++) {
+                SZConfig config = configs.get(i);
+                CuratorFramework client = clients.get(i);
+                futures.add(executor.submit((Callable<long[]>) () -> {
+                    go.await();
+                    long start = System.nanoTime();
+                    long baseId = config.createBaseId(client, BitLayout.DEFAULT);
+                    return new long[]{baseId, System.nanoTime() - start};
+                }));
+            }
+            long start = System.nanoTime();
+            go.countDown();
+            Set<Long> baseIds = new HashSet<>();
+            long maxNanos = 0L;
+            for (Future<long[]> future : futures) {
+                long[] result = future.get(60, TimeUnit.SECONDS);
+                assertTrue("baseId must be allocated", result[0] >= 0);
+                assertTrue("baseId " + result[0] + " is allocated twice", baseIds.add(result[0]));
+                maxNanos = Math.max(maxNanos, result[1]);
+            }
+            long totalNanos = System.nanoTime() - start;
+            long conflicts = 0L;
+            for (SZConfig config : configs) {
+                conflicts += config.getAllocateConflictCount();
+            }
+            assertEquals(STARTERS, baseIds.size());
+            System.out.printf("%s %s: %d starters in %d ms, slowest %d ms, %d conflicts%n", probeOrder, round, STARTERS,
+                    TimeUnit.NANOSECONDS.toMillis(totalNanos), TimeUnit.NANOSECONDS.toMillis(maxNanos), conflicts);
+        } finally {
+            executor.shutdownNow();
+            for (CuratorFramework client : clients) {
+                client.close();
+            }
+        }
+    }
+}
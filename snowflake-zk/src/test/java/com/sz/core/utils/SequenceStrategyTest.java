@@ -0,0 +1,65 @@
+package com.sz.core.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The class Sequence strategy test.
+ * 低并发下(每个tick只生成一个ID)按ID对2的幂取模分桶，CARRY与RANDOM的分布均匀，RESET全部落在0号桶
+ *
+ * @since JDK 1.8
+ */
+public class SequenceStrategyTest {
+
+    private static final int BUCKETS = 16;
+    private static final int IDS = BUCKETS * 1000;
+
+    @Test
+    public void resetConcentratesOnFirstBucket() {
+        long[] counts = distribute(SequenceStrategy.RESET);
+        assertEquals(IDS, counts[0]);
+    }
+
+    @Test
+    public void carrySpreadsEvenly() {
+        long[] counts = distribute(SequenceStrategy.CARRY);
+        for (long count : counts) {
+            assertEquals(IDS / BUCKETS, count);
+        }
+    }
+
+    @Test
+    public void randomSpreadsEvenly() {
+        long[] counts = distribute(SequenceStrategy.RANDOM);
+        long expected = IDS / BUCKETS;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            // 每个桶的期望为1000，标准差约31，留出6倍以上的余量
+            assertTrue("bucket " + bucket + " has " + counts[bucket] + " ids", Math.abs(counts[bucket] - expected) < 200);
+        }
+    }
+
+    /**
+     * 每次取时间都前进1ms，使每个ID都位于新的tick中
+     *
+     * @param strategy the strategy
+     * @return 每个桶中的ID数量
+     */
+    private static long[] distribute(SequenceStrategy strategy) {
+        AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+        SnowflakeIdWorker worker = SnowflakeIdWorker.builder()
+                .workerId(1)
+                .dataCenterId(1)
+                .timeSource(clock::incrementAndGet)
+                .sequenceStrategy(strategy)
+                .build();
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < IDS; i++) {
+            counts[(int) (worker.nextId() & (BUCKETS - 1))]++;
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,289 @@
+package com.sz.core.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The class Snowflake id worker test.
+ * 多线程下加锁模式与无锁模式生成的ID都唯一，且同一线程内严格递增；时钟回退切换到备用身份后不生成低于其高水位的ID，
+ * 重新启用被替换的身份后不生成低于其被替换前时间截的ID；不生成超出外部记录的高水位的ID
+ *
+ * @since JDK 1.8
+ */
+public class SnowflakeIdWorkerTest {
+
+    private static final int THREADS = 16;
+    private static final int IDS_PER_THREAD = 50_000;
+    private static final int BATCH_SIZE = 100;
+
+    @Test
+    public void nextIdIsUniqueAndMonotonicWithLock() throws Exception {
+        checkUniqueAndMonotonic(newWorker(false), false);
+    }
+
+    @Test
+    public void nextIdIsUniqueAndMonotonicLockFree() throws Exception {
+        checkUniqueAndMonotonic(newWorker(true), false);
+    }
+
+    @Test
+    public void nextIdsIsUniqueAndMonotonicWithLock() throws Exception {
+        checkUniqueAndMonotonic(newWorker(false), true);
+    }
+
+    @Test
+    public void nextIdsIsUniqueAndMonotonicLockFree() throws Exception {
+        checkUniqueAndMonotonic(newWorker(true), true);
+    }
+
+    @Test
+    public void spareFloorIsRespectedWithLock() {
+        checkSpareFloor(false);
+    }
+
+    @Test
+    public void spareFloorIsRespectedLockFree() {
+        checkSpareFloor(true);
+    }
+
+    @Test
+    public void retiredIdentityFloorIsRespectedWithLock() {
+        checkRetiredIdentityFloor(false);
+    }
+
+    @Test
+    public void retiredIdentityFloorIsRespectedLockFree() {
+        checkRetiredIdentityFloor(true);
+    }
+
+    @Test
+    public void markCeilingIsRespectedWithLock() throws Exception {
+        checkMarkCeiling(false);
+    }
+
+    @Test
+    public void markCeilingIsRespectedLockFree() throws Exception {
+        checkMarkCeiling(true);
+    }
+
+    @Test
+    public void tryNextIdSaturatesLargeTimeout() throws Exception {
+        SnowflakeIdWorker worker = SnowflakeIdWorker.builder()
+                .pendingIdentity(5000)
+                .build();
+        assertEquals(SnowflakeIdWorker.TIMEOUT_ID, worker.tryNextId(10, TimeUnit.MILLISECONDS));
+
+        // 极大的等待时间视为不限时，身份分配之前一直等待，而不是因为截止时间溢出立即超时
+        Thread assigner = new Thread(() -> {
+            try {
+                Thread.sleep(100L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            worker.switchIdentity(new WorkerIdentity(1, 1));
+        });
+        assigner.start();
+        assertTrue(worker.tryNextId(Long.MAX_VALUE, TimeUnit.NANOSECONDS) > 0);
+        assertTrue(worker.tryNextId(Long.MAX_VALUE, TimeUnit.DAYS) > 0);
+        assigner.join();
+    }
+
+    @Test
+    public void rollbackToleranceDoesNotBorrowOnOverflow() {
+        long now = System.currentTimeMillis();
+        SnowflakeIdWorker worker = SnowflakeIdWorker.builder()
+                .workerId(1)
+                .dataCenterId(1)
+                .timeSource(() -> now)
+                .rollbackToleranceMillis(5)
+                .build();
+        // 时钟停住时用完当前毫秒的序列，maxLeadMillis为0，容忍回退的上限不能被用来借用未来的毫秒
+        for (int i = 0; i <= SnowflakeIdWorker.SEQUENCE_MASK; i++) {
+            assertEquals(now, worker.timestampOf(worker.nextId()));
+        }
+        assertEquals(SnowflakeIdWorker.TIMEOUT_ID, worker.tryNextId(20, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 时钟回退5秒后切换到备用身份，备用身份的高水位在回退后的时钟之前200ms，首个ID须越过高水位
+     *
+     * @param lockFree 是否无锁模式
+     */
+    private static void checkSpareFloor(boolean lockFree) {
+        AtomicLong offset = new AtomicLong();
+        AtomicLong spareFloor = new AtomicLong();
+        WorkerIdentity spare = new WorkerIdentity(2, 1);
+        SnowflakeIdWorker worker = SnowflakeIdWorker.builder()
+                .workerId(1)
+                .dataCenterId(1)
+                .lockFree(lockFree)
+                .timeSource(() -> System.currentTimeMillis() + offset.get())
+                .rollbackToleranceMillis(5)
+                .rollbackMaxWaitMillis(50)
+                .floorMaxWaitMillis(1000)
+                .spareWorkerIdProvider(new SpareWorkerIdProvider() {
+                    @Override
+                    public WorkerIdentity acquire() {
+                        return spare;
+                    }
+
+                    @Override
+                    public long floorMillis(WorkerIdentity identity) {
+                        return spareFloor.get();
+                    }
+                })
+                .build();
+        worker.nextId();
+
+        offset.set(-5000L);
+        spareFloor.set(System.currentTimeMillis() + offset.get() + 200L);
+        long id = worker.nextId();
+        assertEquals(spare, worker.getIdentity());
+        assertTrue("id must be above the floor of the spare", worker.timestampOf(id) > spareFloor.get());
+    }
+
+    /**
+     * 时钟回退300ms后切换到备用身份，随后身份被撤销(会话丢失)，重连后沿用原身份：
+     * 原身份的最大时间截由本实例记下，即使zk中没有高水位，重新启用后的首个ID也须越过它
+     *
+     * @param lockFree 是否无锁模式
+     */
+    private static void checkRetiredIdentityFloor(boolean lockFree) {
+        AtomicLong offset = new AtomicLong();
+        WorkerIdentity original = new WorkerIdentity(1, 1);
+        WorkerIdentity spare = new WorkerIdentity(2, 1);
+        SnowflakeIdWorker worker = SnowflakeIdWorker.builder()
+                .workerId(original.getWorkerId())
+                .dataCenterId(original.getDataCenterId())
+                .lockFree(lockFree)
+                .timeSource(() -> System.currentTimeMillis() + offset.get())
+                .rollbackMaxWaitMillis(50)
+                .floorMaxWaitMillis(1000)
+                .spareWorkerIdProvider(() -> spare)
+                .build();
+        long maxOriginal = 0L;
+        for (int i = 0; i < 10_000; i++) {
+            maxOriginal = Math.max(maxOriginal, worker.timestampOf(worker.nextId()));
+        }
+
+        offset.set(-300L);
+        worker.nextId();
+        assertEquals(spare, worker.getIdentity());
+
+        worker.revokeIdentity();
+        worker.switchIdentity(original, 0L);
+        long id = worker.nextId();
+        assertEquals(original, worker.getIdentity());
+        assertTrue("id must be above the last timestamp of the original identity", worker.timestampOf(id) > maxOriginal);
+    }
+
+    /**
+     * 高水位只写到当前时间之后10ms，时钟越过高水位后停止生成ID，直到高水位被推进
+     *
+     * @param lockFree 是否无锁模式
+     */
+    private static void checkMarkCeiling(boolean lockFree) throws Exception {
+        long start = System.currentTimeMillis();
+        AtomicLong now = new AtomicLong(start);
+        WorkerIdentity identity = new WorkerIdentity(1, 1);
+        SnowflakeIdWorker worker = SnowflakeIdWorker.builder()
+                .workerId(identity.getWorkerId())
+                .dataCenterId(identity.getDataCenterId())
+                .lockFree(lockFree)
+                .timeSource(now::get)
+                .identityTimeoutMillis(1000)
+                .markMillis(start + 10)
+                .build();
+        assertEquals(start, worker.timestampOf(worker.nextId()));
+
+        now.set(start + 20);
+        assertEquals(SnowflakeIdWorker.TIMEOUT_ID, worker.tryNextId(20, TimeUnit.MILLISECONDS));
+
+        // 推进高水位后，等待中的线程继续生成ID
+        Thread extender = new Thread(() -> {
+            try {
+                Thread.sleep(100L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            worker.extendMark(identity, start + 30);
+        });
+        extender.start();
+        assertEquals(start + 20, worker.timestampOf(worker.nextId()));
+        extender.join();
+        assertEquals(start + 30, worker.getMarkMillis());
+
+        // 推进之后越过高水位，超过等待身份的时间仍未推进时抛出异常
+        now.set(start + 40);
+        try {
+            worker.nextId();
+            throw new AssertionError("id beyond the mark must not be generated");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("high water mark"));
+        }
+    }
+
+    private static SnowflakeIdWorker newWorker(boolean lockFree) {
+        return SnowflakeIdWorker.builder()
+                .workerId(1)
+                .dataCenterId(1)
+                .lockFree(lockFree)
+                .build();
+    }
+
+    private static void checkUniqueAndMonotonic(SnowflakeIdWorker worker, boolean batch) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit((Callable<long[]>) () -> {
+                    long[] ids = new long[IDS_PER_THREAD];
+                    start.await();
+                    if (batch) {
+                        for (int i = 0; i < IDS_PER_THREAD; i += BATCH_SIZE) {
+                            worker.fill(ids, i, Math.min(BATCH_SIZE, IDS_PER_THREAD - i));
+                        }
+                    } else {
+                        for (int i = 0; i < IDS_PER_THREAD; i++) {
+                            ids[i] = worker.nextId();
+                        }
+                    }
+                    return ids;
+                }));
+            }
+            start.countDown();
+
+            long[] all = new long[THREADS * IDS_PER_THREAD];
+            int offset = 0;
+            for (Future<long[]> future : futures) {
+                long[] ids = future.get();
+                for (int i = 1; i < ids.length; i++) {
+                    assertTrue("ids of one thread must increase", ids[i] > ids[i - 1]);
+                }
+                System.arraycopy(ids, 0, all, offset, ids.length);
+                offset += ids.length;
+            }
+            Arrays.sort(all);
+            for (int i = 1; i < all.length; i++) {
+                assertTrue("duplicate id " + all[i], all[i] != all[i - 1]);
+            }
+            assertEquals(THREADS * IDS_PER_THREAD, all.length);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
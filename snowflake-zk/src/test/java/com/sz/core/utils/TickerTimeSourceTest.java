@@ -0,0 +1,56 @@
+package com.sz.core.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The class Ticker time source test.
+ * 系统时钟回退后缓存的时钟随之回退，id生成器按分级策略切换到备用身份，而不是等待时钟追回
+ *
+ * @since JDK 1.8
+ */
+public class TickerTimeSourceTest {
+
+    private static final long STEP_BACK_MILLIS = 5000L;
+
+    @Test
+    public void stepBackIsHandledByRollbackTiers() throws Exception {
+        AtomicLong offset = new AtomicLong();
+        TickerTimeSource ticker = new TickerTimeSource(TickerTimeSource.DEFAULT_RESOLUTION_NANOS,
+                () -> System.currentTimeMillis() + offset.get());
+        try {
+            WorkerIdentity spare = new WorkerIdentity(2, 1);
+            SnowflakeIdWorker worker = SnowflakeIdWorker.builder()
+                    .workerId(1)
+                    .dataCenterId(1)
+                    .timeSource(ticker)
+                    .rollbackToleranceMillis(5)
+                    .rollbackMaxWaitMillis(50)
+                    .spareWorkerIdProvider(() -> spare)
+                    .build();
+            long last = worker.nextId();
+
+            long before = ticker.currentTimeMillis();
+            offset.set(-STEP_BACK_MILLIS);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+            while (ticker.currentTimeMillis() > before - STEP_BACK_MILLIS / 2) {
+                assertTrue("ticker must follow the step back after recalibration", System.nanoTime() - deadline < 0);
+                Thread.sleep(10);
+            }
+
+            long start = System.nanoTime();
+            long id = worker.nextId();
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertEquals(spare, worker.getIdentity());
+            assertTrue("rollback must not stall for the whole step, but waited " + elapsedMillis + "ms", elapsedMillis < 1000);
+            assertTrue(id != last);
+        } finally {
+            ticker.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.sz.core.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class Virtual thread benchmark.
+ * 用大量虚拟线程并发生成ID，比较各等待策略下的吞吐量、载体线程的CPU占用以及其他虚拟线程被饿住的程度
+ * <p>
+ * 载体利用率为进程CPU时间除以(耗时×载体线程数)；探测延迟为一个每隔1ms醒来一次的虚拟线程实际醒来的最大延迟，
+ * 载体线程被忙等占住时该值明显变大。同时检查所有ID唯一。
+ * 通过{@code mvn -Djava21.home=<JDK21目录> package}构建多版本jar后，用JDK21运行：
+ * <pre>
+ * java -Djdk.tracePinnedThreads=full -cp target/snowflake-zk-1.0-SNAPSHOT.jar:target/test-classes:... \
+ *     com.sz.core.utils.VirtualThreadBenchmark [虚拟线程数] [每个线程生成的ID数]
+ * </pre>
+ *
+ * @since JDK 21
+ */
+public final class VirtualThreadBenchmark {
+
+    private static final long PROBE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private VirtualThreadBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int idsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int carriers = Integer.getInteger("jdk.virtualThreadScheduler.parallelism", Runtime.getRuntime().availableProcessors());
+
+        Map<String, WaitStrategy> strategies = new LinkedHashMap<>();
+        strategies.put("SPIN", BusySpinWaitStrategy.INSTANCE);
+        strategies.put("YIELD", YieldWaitStrategy.INSTANCE);
+        strategies.put("PARK", new ParkWaitStrategy(TimeUnit.MICROSECONDS.toNanos(50)));
+
+        System.out.printf("virtual threads=%d, ids per thread=%d, carriers=%d%n", threads, idsPerThread, carriers);
+        // 先跑一轮预热
+        for (WaitStrategy strategy : strategies.values()) {
+            run(strategy, Math.min(threads, 10_000), idsPerThread, carriers);
+        }
+        for (Map.Entry<String, WaitStrategy> entry : strategies.entrySet()) {
+            Result result = run(entry.getValue(), threads, idsPerThread, carriers);
+            System.out.printf("%-6s %,12.0f ids/s  carrier utilisation %5.1f%%  max probe delay %6.2f ms  unique=%s%n",
+                    entry.getKey(), result.throughput, result.utilisation * 100, result.maxProbeDelayMillis, result.unique);
+        }
+    }
+
+    private static Result run(WaitStrategy strategy, int threads, int idsPerThread, int carriers) throws Exception {
+        SnowflakeIdWorker worker = SnowflakeIdWorker.builder()
+                .workerId(1)
+                .dataCenterId(1)
+                .waitStrategy(strategy)
+                .build();
+        long[] ids = new long[threads * idsPerThread];
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong maxProbeDelay = new AtomicLong();
+        Thread probe = Thread.ofVirtual().start(() -> {
+            while (running.get()) {
+                long start = System.nanoTime();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long delay = System.nanoTime() - start - PROBE_INTERVAL_NANOS;
+                maxProbeDelay.accumulateAndGet(delay, Math::max);
+            }
+        });
+
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long cpuStart = os.getProcessCpuTime();
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                int offset = t * idsPerThread;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < idsPerThread; i++) {
+                        ids[offset + i] = worker.nextId();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long cpu = os.getProcessCpuTime() - cpuStart;
+        running.set(false);
+        probe.join();
+
+        Arrays.sort(ids);
+        boolean unique = true;
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i] == ids[i - 1]) {
+                unique = false;
+                break;
+            }
+        }
+        Result result = new Result();
+        result.throughput = ids.length / (elapsed / 1e9);
+        result.utilisation = (double) cpu / ((double) elapsed * carriers);
+        result.maxProbeDelayMillis = Math.max(0L, maxProbeDelay.get()) / 1e6;
+        result.unique = unique;
+        return result;
+    }
+
+    private static final class Result {
+        private double throughput;
+        private double utilisation;
+        private double maxProbeDelayMillis;
+        private boolean unique;
+    }
+}